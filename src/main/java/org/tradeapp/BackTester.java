@@ -6,13 +6,32 @@ import org.tradeapp.backtest.domain.Account;
 import org.tradeapp.backtest.service.*;
 import org.tradeapp.utils.Log;
 import org.tradeapp.backtest.domain.MarketEntry;
+import org.tradeapp.backtest.domain.MarketHistoryBuffer;
+import org.tradeapp.backtest.domain.MarketSeries;
+import org.tradeapp.backtest.storage.MappedMarketSeries;
+import org.tradeapp.backtest.storage.MarketDataCatalog;
+import org.tradeapp.backtest.storage.MarketDataCursor;
+import org.tradeapp.backtest.storage.MarketDataReader;
+import org.tradeapp.backtest.storage.SeriesMarketDataCursor;
+import org.tradeapp.backtest.storage.TradeJournal;
+import org.tradeapp.backtest.storage.TradeJournalWriter;
 import org.tradeapp.ui.domain.MarketKlineEntry;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.ZoneId;
-import java.time.ZonedDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static org.tradeapp.backtest.constants.Settings.*;
@@ -22,6 +41,32 @@ import static org.tradeapp.backtest.constants.Settings.*;
  */
 public class BackTester {
     public static final boolean SKIP_MARKET_DATA_UPDATE = false;
+    /**
+     * Сжимать партиции завершенных лет в архив (см. {@link FileMarketDataLoader#archiveCompletedPartitions()})
+     */
+    public static final boolean ARCHIVE_COMPLETED_YEARS = true;
+    /**
+     * Повторно запросить пропущенные диапазоны из манифеста (см. {@link FileMarketDataLoader#repairGaps()})
+     */
+    public static final boolean REPAIR_MARKET_DATA_GAPS = false;
+    /**
+     * Потоковый режим: данные читаются из файла блоками, в памяти только последние HISTORY_LIVE_TIME для UI.
+     * Иначе вся история диапазона отображается в память вне heap (см. {@link FileMarketDataLoader#mapEntries}).
+     */
+    public static final boolean STREAMING_MODE = true;
+    /**
+     * Диапазон бэктеста [BACKTEST_FROM, BACKTEST_TO). Один непрерывный прогон через границы годов:
+     * баланс, окна имбалансов и открытые позиции не сбрасываются на Новый год.
+     */
+    public static final LocalDate BACKTEST_FROM = LocalDate.of(2025, 1, 1);
+    public static final LocalDate BACKTEST_TO = LocalDate.of(2026, 1, 1);
+    public static final String MARKET_DATA_PATH = System.getProperty("user.dir") + "/input/market-data/";
+    /**
+     * Каталог с архивами Binance public data (SYMBOL-1s-YYYY-MM.zip и .CHECKSUM). Если каталог есть, архивы символа
+     * импортируются перед загрузкой из API, и загрузка продолжается с последней импортированной секунды
+     * (см. {@link BinanceArchiveImporter}).
+     */
+    public static final String MARKET_DATA_ARCHIVES_PATH = System.getProperty("user.dir") + "/input/binance-archives/";
 
     private final Log log = new Log();
 
@@ -30,26 +75,68 @@ public class BackTester {
     private final Account account;
     private final VolatilityService volatilityService;
     private final ImbalanceService imbalanceService;
-    private final TreeMap<Long, MarketEntry> marketData;
+    private final MarketDataCursor marketData;
+    private final MarketHistoryBuffer history;
+    private final TradeJournalWriter journal;
 
+    /**
+     * Бэктест по ряду с произвольным доступом (загруженному или отображенному в память). Последняя строка ряда в бэктест не входит.
+     * Окна для UI и анализа имбалансов - представления этого же ряда без копирования.
+     * @param candles свечи 15m для {@link VolatilityService}, в бэктесте - локальные агрегаты хранилища
+     */
     public BackTester(String symbol,
-                      APIService apiService,
-                      TreeMap<Long, MarketEntry> marketData,
+                      MarketDataReader candles,
+                      MarketSeries marketData,
                       TreeMap<Long, MarketKlineEntry> uiMarketData) {
+        this(symbol, candles, new SeriesMarketDataCursor(marketData, marketData.firstTime(), marketData.lastTime()),
+                marketData::subRange, null, uiMarketData);
+    }
+
+    /**
+     * Потоковый бэктест: тики читаются из курсора, прошлые данные для UI доступны из ограниченного буфера истории.
+     */
+    public BackTester(String symbol,
+                      MarketDataReader candles,
+                      MarketDataCursor marketData,
+                      TreeMap<Long, MarketKlineEntry> uiMarketData) {
+        this(symbol, candles, marketData, null, new MarketHistoryBuffer(HISTORY_LIVE_TIME), uiMarketData);
+    }
+
+    /**
+     * Потоковый бэктест: тики читаются из курсора, окна для UI читаются из хранилища по индексу блоков.
+     */
+    public BackTester(String symbol,
+                      MarketDataReader candles,
+                      MarketDataCursor marketData,
+                      MarketDataReader uiData,
+                      TreeMap<Long, MarketKlineEntry> uiMarketData) {
+        this(symbol, candles, marketData, uiData, null, uiMarketData);
+    }
+
+    private BackTester(String symbol,
+                       MarketDataReader candles,
+                       MarketDataCursor marketData,
+                       MarketDataReader uiData,
+                       MarketHistoryBuffer history,
+                       TreeMap<Long, MarketKlineEntry> uiMarketData) {
         this.marketData = marketData;
+        this.history = history;
+        if (uiData == null) {
+            uiData = history::subRange;
+        }
 
-        log.info(PEZDA, marketData.firstKey());
+        log.info(PEZDA, marketData.fromTime());
         log.info(String.format("""
                         account parameters:
                             balance :: %d$
                             risk :: %d%%
                             credit :: %d""",
                 BALANCE, (long) (RISK_LEVEL * 100), CREDIT_LEVEL),
-                marketData.firstKey());
+                marketData.fromTime());
 
         //noinspection ConstantValue
         if (TAKES_COUNT > TAKE_PROFIT_THRESHOLDS.length) {
-            throw log.throwError("foreach take modifier must be defined", marketData.firstKey());
+            throw log.throwError("foreach take modifier must be defined", marketData.fromTime());
         }
         log.info(String.format("""
                         strategy parameters:
@@ -60,7 +147,7 @@ public class BackTester {
                 TAKES_COUNT,
                 Arrays.toString(TAKE_PROFIT_THRESHOLDS),
                 STOP_LOSS_MODIFICATOR,
-                POSITION_LIVE_TIME / 60_000L), marketData.firstKey());
+                POSITION_LIVE_TIME / 60_000L), marketData.fromTime());
 
         log.info(String.format("""
                         imbalance parameters:
@@ -89,71 +176,126 @@ public class BackTester {
                 LARGE_DATA_LIVE_TIME/60_000L,
                 LARGE_DATA_ENTRY_SIZE/1000,
                 TIME_CHECK_CONTR_IMBALANCE/60_000L,
-                RETURNED_PRICE_IMBALANCE_PARTITION), marketData.firstKey());
+                RETURNED_PRICE_IMBALANCE_PARTITION), marketData.fromTime());
         log.info(String.format("""
                         imbalance parameters:
-                            update time period :: %d hours
+                            update time period :: %d minutes
                             volatility calculation past time :: %d days
                             average price calculation past time :: %d days""",
-                UPDATE_TIME_PERIOD_MILLS / 3_600_000L,
+                VolatilityService.CANDLES_RESOLUTION.mills() / 60_000L,
                 VOLATILITY_CALCULATE_PAST_TIME_DAYS,
-                AVERAGE_PRICE_CALCULATE_PAST_TIME_DAYS), marketData.firstKey());
+                AVERAGE_PRICE_CALCULATE_PAST_TIME_DAYS), marketData.fromTime());
 
         this.account = new Account();
-        this.simulator = new ExchangeSimulator(account);
-        this.volatilityService = new VolatilityService(symbol, apiService);
+        this.journal = TradeJournalWriter.create(Paths.get(TradeJournal.RESULTS_PATH + symbol + TradeJournal.EXTENSION));
+        this.simulator = new ExchangeSimulator(account, journal);
+        this.volatilityService = new VolatilityService(symbol, candles);
         this.imbalanceService = new ImbalanceService();
-        imbalanceService.setData(marketData);
+        imbalanceService.setData(uiData);
+        imbalanceService.setJournal(journal);
         volatilityService.subscribe(this.imbalanceService);
-        this.strategy = new Strategy(simulator, marketData, uiMarketData, imbalanceService, account);
+        this.strategy = new Strategy(simulator, uiData, uiMarketData, imbalanceService, account);
     }
 
     public void runTests() {
         AtomicLong step = new AtomicLong(0L);
         long startTime = Instant.now().toEpochMilli();
-        long firstKey = marketData.firstKey();//1666775517000
-        long lastKey = marketData.lastKey();//1688132229000
+        long firstKey = marketData.fromTime();//1666775517000
+        long lastKey = marketData.toTime();//1688132229000
 //        long firstKey = 1666396805000L;
 //        long lastKey = 1667520005000L;
 
-        ZonedDateTime zonedDateTime = Instant.ofEpochMilli(firstKey).atZone(ZoneId.of("UTC"));
-        int year = zonedDateTime.getYear();
+        int firstYear = Instant.ofEpochMilli(firstKey).atZone(ZoneId.of("UTC")).getYear();
+        int lastYear = Instant.ofEpochMilli(lastKey - 1).atZone(ZoneId.of("UTC")).getYear();
+        String operationName = firstYear == lastYear ? "backtest " + firstYear : "backtest " + firstYear + "-" + lastYear;
 
         log.info(String.format("starting backtest with balance %.2f$", account.getBalance()), firstKey);
-        try {
-            marketData
-                    .subMap(firstKey, lastKey)
-                    .forEach((currentTime, currentEntry) -> {
-                        volatilityService.onTick(currentTime, currentEntry);
-                        imbalanceService.onTick(currentTime, currentEntry);
-                        strategy.onTick(currentTime, currentEntry);
-                        simulator.onTick(currentTime, currentEntry);
-
-                        double progress = ((double) (currentTime - firstKey)) / ((double) (lastKey - firstKey));
-                        log.logProgress(startTime, step, progress, "backtest " + year, currentTime);
-                    });
+        try (marketData; journal) {
+            MarketSeries chunk;
+            while ((chunk = marketData.next()) != null) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    long currentTime = chunk.time(i);
+                    MarketEntry currentEntry = chunk.entry(i);
+                    if (history != null) {
+                        history.add(currentTime, currentEntry);
+                    }
+                    volatilityService.onTick(currentTime, currentEntry);
+                    imbalanceService.onTick(currentTime, currentEntry);
+                    strategy.onTick(currentTime, currentEntry);
+                    simulator.onTick(currentTime, currentEntry);
+
+                    double progress = ((double) (currentTime - firstKey)) / ((double) (lastKey - firstKey));
+                    log.logProgress(startTime, step, progress, operationName, currentTime);
+                }
+            }
         } catch (Exception e) {
             log.error("", e, lastKey);
         }
         log.info(String.format("backtest finished with balance %.2f$", account.getBalance()), lastKey);
     }
 
+    /**
+     * Символы из аргументов запуска (или {@link org.tradeapp.backtest.constants.Settings#SYMBOLS}) обрабатываются параллельно:
+     * у каждого символа свой загрузчик, свои файлы данных и логов и свой бэктест, количество одновременных символов
+     * ограничено количеством ядер.
+     */
     public static void main(String[] args) {
         final HttpClient httpClient = new HttpClient();
         final APIService apiService = new APIService(httpClient);
+        final MarketDataCatalog catalog = MarketDataCatalog.scan(Paths.get(MARKET_DATA_PATH));
+        final List<String> symbols = args.length > 0 ? List.of(args) : SYMBOLS;
+
+        long now = Instant.now().toEpochMilli();
+        Log log = new Log();
+        catalog.symbols().forEach(symbol -> log.info(String.format("local market data %s: %s", symbol, catalog.years(symbol)), now));
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(symbols.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (String symbol : symbols) {
+                results.add(executor.submit(() -> {
+                    Log.setSymbol(symbol);
+                    runSymbol(symbol, apiService, catalog);
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    results.get(i).get();
+                } catch (ExecutionException e) {
+                    log.error(symbols.get(i), e, now);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+        }
+    }
 
-        final FileMarketDataLoader handler = new FileMarketDataLoader(
-                System.getProperty("user.dir") + "/input/market-data/" + SYMBOL,
-                SYMBOL,
-                apiService);
+    private static void runSymbol(String symbol, APIService apiService, MarketDataCatalog catalog) {
+        final FileMarketDataLoader handler = new FileMarketDataLoader(catalog.pathPrefix(symbol), symbol, apiService);
 
+        if (Files.isDirectory(Path.of(MARKET_DATA_ARCHIVES_PATH)))
+            new BinanceArchiveImporter(symbol, handler).importArchives(Path.of(MARKET_DATA_ARCHIVES_PATH));
         if (!SKIP_MARKET_DATA_UPDATE)
             handler.updateOrDownloadData();
+        if (REPAIR_MARKET_DATA_GAPS)
+            handler.repairGaps();
+        if (ARCHIVE_COMPLETED_YEARS)
+            handler.archiveCompletedPartitions();
 
-        for (int year = 2025; year <= 2025; year++) {
-            TreeMap<Long, MarketEntry> marketData = handler.readAllEntries(year);
-            BackTester tester = new BackTester(SYMBOL, apiService, marketData, null);
-            tester.runTests();
+        long fromTime = BACKTEST_FROM.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        long toTime = BACKTEST_TO.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        MarketDataReader candles = handler.rollupReader(VolatilityService.CANDLES_RESOLUTION);
+        if (STREAMING_MODE) {
+            new BackTester(symbol, candles, handler.openCursor(fromTime, toTime), handler, null).runTests();
+        } else {
+            try (MappedMarketSeries marketData = handler.mapEntries(fromTime, toTime)) {
+                if (marketData.isEmpty()) {
+                    return;
+                }
+                new BackTester(symbol, candles, marketData, null).runTests();
+            }
         }
     }
 }
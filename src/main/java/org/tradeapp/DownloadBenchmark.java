@@ -0,0 +1,98 @@
+package org.tradeapp;
+
+import org.tradeapp.backtest.binance.APIService;
+import org.tradeapp.backtest.binance.BinanceStubServer;
+import org.tradeapp.backtest.binance.HttpClient;
+import org.tradeapp.backtest.binance.RequestScheduler;
+import org.tradeapp.backtest.domain.ArrayMarketSeries;
+import org.tradeapp.backtest.domain.MarketSeriesBuilder;
+import org.tradeapp.backtest.service.FileMarketDataLoader;
+import org.tradeapp.backtest.storage.MarketDataReader;
+import org.tradeapp.utils.Log;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Замер скорости загрузки истории {@link FileMarketDataLoader#updateOrDownloadData()} при разном числе одновременных запросов.
+ * Данные отдает локальный {@link BinanceStubServer} с задержкой ответа как у биржи, поэтому замер не расходует лимиты Binance.
+ * <p>
+ * Для каждого значения конкурентности загрузка начинается с чистого каталога, в который записана одна строка
+ * за DOWNLOAD_HOURS до текущего момента, и загружается ровно этот диапазон.
+ * Аргументы (необязательные): список значений конкурентности, например {@code 1 2 4 8 16}.
+ */
+public class DownloadBenchmark {
+    private static final Log log = new Log();
+
+    private static final String SYMBOL = "BENCHUSDT";
+    private static final int[] DEFAULT_CONCURRENCY = {1, 2, 4, 8, 16, 32};
+    /**
+     * Загружаемый диапазон, 24 часа - 87 страниц по 1000 секунд
+     */
+    private static final long DOWNLOAD_HOURS = 24;
+    /**
+     * Задержка ответа заглушки, близкая к задержке ответа биржи
+     */
+    private static final long MIN_LATENCY_MILLS = 250;
+    private static final long MAX_LATENCY_MILLS = 350;
+    /**
+     * Лимит веса клиента не должен ограничивать замер, ограничивает только число одновременных запросов
+     */
+    private static final int CLIENT_WEIGHT_LIMIT = 1_000_000;
+
+    public static void main(String[] args) throws IOException {
+        int[] concurrencies = args.length == 0 ? DEFAULT_CONCURRENCY : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+        long now = Instant.now().toEpochMilli() / 1000 * 1000;
+        long fromTime = now - DOWNLOAD_HOURS * 60 * 60 * 1000;
+
+        MarketDataReader source = DownloadBenchmark::generate;
+        try (BinanceStubServer stub = new BinanceStubServer(0, (symbol, interval) ->
+                SYMBOL.equals(symbol) && "1s".equals(interval) ? source : null).start()) {
+            stub.setLatency(MIN_LATENCY_MILLS, MAX_LATENCY_MILLS);
+            for (int concurrency : concurrencies) {
+                Path directory = Files.createTempDirectory("download-benchmark");
+                try {
+                    APIService apiService = new APIService(new HttpClient(stub.getBaseUrl(), new RequestScheduler(CLIENT_WEIGHT_LIMIT)));
+                    FileMarketDataLoader loader = new FileMarketDataLoader(directory.resolve(SYMBOL).toString(), SYMBOL, apiService);
+                    loader.setDownloadConcurrency(concurrency);
+                    loader.importEntries(generate(fromTime, fromTime + 1000));
+
+                    long requestsBefore = stub.getRequestsCount();
+                    long started = System.nanoTime();
+                    loader.updateOrDownloadData();
+                    double seconds = (System.nanoTime() - started) / 1e9;
+                    long pages = stub.getRequestsCount() - requestsBefore;
+                    log.info(String.format("concurrency %2d: %d pages in %.2f s, %.1f pages/s",
+                            concurrency, pages, seconds, pages / seconds), Instant.now().toEpochMilli());
+                } finally {
+                    deleteDirectory(directory);
+                }
+            }
+        }
+    }
+
+    /**
+     * Детерминированные секундные свечи: цена зависит только от времени, поэтому повторные запросы страницы совпадают
+     */
+    private static ArrayMarketSeries generate(long fromTime, long toTime) {
+        MarketSeriesBuilder builder = new MarketSeriesBuilder((int) Math.max(0, (toTime - fromTime) / 1000));
+        for (long time = (fromTime + 999) / 1000 * 1000; time < toTime; time += 1000) {
+            double price = 20_000 + Math.sin(time / 3_600_000.0) * 500 + (time / 1000 % 97) / 10.0;
+            builder.add(time, price + 0.5, price - 0.5, 1.0);
+        }
+        return builder.build();
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
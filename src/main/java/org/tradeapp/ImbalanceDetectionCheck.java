@@ -0,0 +1,132 @@
+package org.tradeapp;
+
+import org.tradeapp.backtest.domain.ArrayMarketSeries;
+import org.tradeapp.backtest.domain.ImbalanceState;
+import org.tradeapp.backtest.domain.MarketEntry;
+import org.tradeapp.backtest.domain.MarketSeries;
+import org.tradeapp.backtest.domain.MarketSeriesBuilder;
+import org.tradeapp.backtest.service.FileMarketDataLoader;
+import org.tradeapp.backtest.service.ImbalanceService;
+import org.tradeapp.backtest.service.VolatilityService;
+import org.tradeapp.backtest.storage.MarketDataCatalog;
+import org.tradeapp.backtest.storage.MarketDataCursor;
+import org.tradeapp.backtest.storage.MarketDataReader;
+import org.tradeapp.backtest.storage.SeriesMarketDataCursor;
+import org.tradeapp.utils.Log;
+
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.Year;
+import java.time.ZoneOffset;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.tradeapp.BackTester.MARKET_DATA_PATH;
+
+/**
+ * Сверка быстрого поиска имбаланса с полным проходом по ежесекундным данным за год.
+ * На каждом тике в состоянии WAIT {@link ImbalanceService} находит имбаланс обоими способами
+ * (см. {@link ImbalanceService#setVerifyDetection}) и при первом расхождении падает с ошибкой.
+ * <p>
+ * Без аргументов данные генерируются по seed {@link #DEFAULT_SEED} (можно передать другой первым аргументом),
+ * поэтому прогон воспроизводим. С аргументами {@code <symbol> <year>} используются сохраненные данные из MARKET_DATA_PATH.
+ */
+public class ImbalanceDetectionCheck {
+    private static final Log log = new Log();
+
+    private static final long DEFAULT_SEED = 7L;
+    private static final int SYNTHETIC_YEAR = 2024;
+
+    public static void main(String[] args) {
+        String symbol;
+        MarketDataReader candles;
+        MarketDataCursor marketData;
+        if (args.length >= 2) {
+            symbol = args[0];
+            int year = Integer.parseInt(args[1]);
+            MarketDataCatalog catalog = MarketDataCatalog.scan(Paths.get(MARKET_DATA_PATH));
+            if (!catalog.contains(symbol)) {
+                throw new IllegalArgumentException("No local market data for " + symbol + " in " + MARKET_DATA_PATH);
+            }
+            FileMarketDataLoader handler = new FileMarketDataLoader(catalog.pathPrefix(symbol), symbol, null);
+            candles = handler.rollupReader(VolatilityService.CANDLES_RESOLUTION);
+            marketData = handler.openCursor(startOf(year), startOf(year + 1));
+        } else {
+            long seed = args.length == 1 ? Long.parseLong(args[0]) : DEFAULT_SEED;
+            symbol = "SYNTHETIC-" + seed;
+            ArrayMarketSeries series = generate(startOf(SYNTHETIC_YEAR), Year.of(SYNTHETIC_YEAR).length() * 86_400, seed);
+            candles = (fromTime, toTime) -> series.slice(0, 0);
+            marketData = new SeriesMarketDataCursor(series, series.time(0), series.time(series.size() - 1) + 1000);
+        }
+        Log.setSymbol(symbol);
+
+        VolatilityService volatilityService = new VolatilityService(symbol, candles);
+        ImbalanceService imbalanceService = new ImbalanceService();
+        imbalanceService.setVerifyDetection(true);
+        volatilityService.subscribe(imbalanceService);
+
+        long startTime = Instant.now().toEpochMilli();
+        AtomicLong step = new AtomicLong(0L);
+        long firstKey = marketData.fromTime();
+        long lastKey = marketData.toTime();
+        long ticks = 0, verified = 0;
+        try (marketData) {
+            MarketSeries chunk;
+            while ((chunk = marketData.next()) != null) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    long currentTime = chunk.time(i);
+                    MarketEntry currentEntry = chunk.entry(i);
+                    if (imbalanceService.getCurrentState() == ImbalanceState.WAIT) {
+                        verified++;
+                    }
+                    volatilityService.onTick(currentTime, currentEntry);
+                    imbalanceService.onTick(currentTime, currentEntry);
+                    ticks++;
+
+                    double progress = ((double) (currentTime - firstKey)) / ((double) (lastKey - firstKey));
+                    log.logProgress(startTime, step, progress, "imbalance detection check", currentTime);
+                }
+            }
+        }
+        log.info(String.format("%s: %d ticks, %d detections verified, %d imbalances, no mismatches",
+                symbol, ticks, verified, imbalanceService.getImbalances().size()), lastKey);
+    }
+
+    /**
+     * Ежесекундные данные, похожие на BTC: случайное блуждание с направленными всплесками длиной 10-130 секунд,
+     * редкими пропусками до 50 минут и редкими свечами с большими тенями.
+     */
+    private static ArrayMarketSeries generate(long fromTime, int seconds, long seed) {
+        MarketSeriesBuilder builder = new MarketSeriesBuilder(seconds);
+        Random random = new Random(seed);
+        double price = 40_000, drift = 0;
+        int burst = 0;
+        for (int i = 0; i < seconds; i++) {
+            if (random.nextInt(200_000) == 0) {
+                i += 1 + random.nextInt(3_000);
+                continue;
+            }
+            if (burst == 0 && random.nextInt(3_000) == 0) {
+                burst = 10 + random.nextInt(120);
+                drift = (random.nextBoolean() ? 1 : -1) * price * (0.0002 + random.nextDouble() * 0.0008);
+            }
+            if (burst > 0 && --burst == 0) {
+                drift = 0;
+            }
+            price += drift + random.nextGaussian() * price * 0.00015 + (40_000 - price) * 1e-6;
+            double high = price + random.nextDouble() * price * 0.0001;
+            double low = price - random.nextDouble() * price * 0.0001;
+            if (random.nextInt(50_000) == 0) {
+                high += price * 0.05 * random.nextDouble();
+                low -= price * 0.05 * random.nextDouble();
+            }
+            builder.add(fromTime + i * 1000L, high, low, random.nextDouble());
+        }
+        return builder.build();
+    }
+
+    private static long startOf(int year) {
+        return LocalDate.of(year, 1, 1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,247 @@
+package org.tradeapp.backtest.binance;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.tradeapp.backtest.domain.MarketSeries;
+import org.tradeapp.backtest.storage.MarketDataReader;
+import org.tradeapp.backtest.storage.Resolution;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Локальная замена REST API Binance на {@link HttpServer} для загрузки, бэктеста и нагрузочных замеров без сети.
+ * <p>
+ * Отвечает на /api/v3/klines строками из локальных данных: источник по символу и интервалу задается функцией
+ * (например, ежесекундные данные загрузчика для "1s" и его агрегаты для "15m"). Формат ответа как у биржи,
+ * open и close свечи - среднее high и low, т.к. в хранилище их нет.
+ * <p>
+ * Как у биржи, ответ содержит {@link RequestScheduler#USED_WEIGHT_HEADER}, при превышении лимита веса за минуту
+ * возвращается 429 с {@link RequestScheduler#RETRY_AFTER_HEADER}. Задержка ответа и доля ответов с ошибкой настраиваются,
+ * случайность с фиксированным seed, поэтому прогоны повторяемы.
+ */
+public class BinanceStubServer implements AutoCloseable {
+
+    public static final String KLINES_ENDPOINT = "/api/v3/klines";
+    private static final int DEFAULT_LIMIT = 500;
+    private static final int MAX_LIMIT = 1000;
+    private static final long WINDOW_MILLS = 60_000L;
+
+    private final HttpServer server;
+    private final BiFunction<String, String, MarketDataReader> sources;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private Random random = new Random(0L);
+    private long minLatencyMills = 0L;
+    private long maxLatencyMills = 0L;
+    private double errorRate = 0.;
+    private int errorStatus = 503;
+    private int weightLimit = Integer.MAX_VALUE;
+
+    private long windowStart = 0L;
+    private int usedWeight = 0;
+
+    /**
+     * @param port порт или 0 для свободного порта
+     * @param sources данные по символу и интервалу Binance ("1s", "15m", ...), null если таких данных нет
+     */
+    public BinanceStubServer(int port, BiFunction<String, String, MarketDataReader> sources) {
+        this.sources = sources;
+        try {
+            this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext(KLINES_ENDPOINT, this::handleKlines);
+    }
+
+    public BinanceStubServer start() {
+        server.start();
+        return this;
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Задержка каждого ответа, равномерно в [min, max] миллисекунд
+     */
+    public synchronized void setLatency(long minMills, long maxMills) {
+        this.minLatencyMills = minMills;
+        this.maxLatencyMills = Math.max(minMills, maxMills);
+    }
+
+    /**
+     * Доля запросов, на которые возвращается ошибка status (5xx - повторяемая ошибка биржи)
+     */
+    public synchronized void setErrors(double rate, int status) {
+        this.errorRate = rate;
+        this.errorStatus = status;
+    }
+
+    /**
+     * Лимит веса за минуту, после которого возвращается 429
+     */
+    public synchronized void setWeightLimit(int weightLimit) {
+        this.weightLimit = weightLimit;
+    }
+
+    public synchronized void setSeed(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public long getRequestsCount() {
+        return requests.sum();
+    }
+
+    public long getErrorsCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handleKlines(HttpExchange exchange) throws IOException {
+        requests.increment();
+        try (exchange) {
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            long latency;
+            boolean failed;
+            int status = 200;
+            long retryAfter = -1L;
+            int used;
+            synchronized (this) {
+                latency = minLatencyMills + (maxLatencyMills > minLatencyMills ? random.nextLong(maxLatencyMills - minLatencyMills + 1) : 0L);
+                failed = random.nextDouble() < errorRate;
+                long now = System.currentTimeMillis();
+                if (now - windowStart >= WINDOW_MILLS) {
+                    windowStart = now - now % WINDOW_MILLS;
+                    usedWeight = 0;
+                }
+                usedWeight += APIService.KLINES_WEIGHT;
+                used = usedWeight;
+                if (usedWeight > weightLimit) {
+                    status = 429;
+                    retryAfter = (windowStart + WINDOW_MILLS - now + 999L) / 1000L;
+                } else if (failed) {
+                    status = errorStatus;
+                }
+            }
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+            exchange.getResponseHeaders().add(RequestScheduler.USED_WEIGHT_HEADER, String.valueOf(used));
+            if (status == 429) {
+                exchange.getResponseHeaders().add(RequestScheduler.RETRY_AFTER_HEADER, String.valueOf(retryAfter));
+                sendError(exchange, status, -1003, "Too many requests");
+            } else if (status != 200) {
+                sendError(exchange, status, -1001, "Internal error");
+            } else {
+                sendKlines(exchange, params);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sendKlines(HttpExchange exchange, Map<String, String> params) throws IOException {
+        String symbol = params.get("symbol");
+        String interval = params.get("interval");
+        Long intervalMills = intervalMills(interval);
+        MarketDataReader source = symbol == null || intervalMills == null ? null : sources.apply(symbol, interval);
+        if (source == null) {
+            sendError(exchange, 400, -1121, "Invalid symbol or interval");
+            return;
+        }
+        int limit = Math.min(MAX_LIMIT, Integer.parseInt(params.getOrDefault("limit", String.valueOf(DEFAULT_LIMIT))));
+        long startTime = Long.parseLong(params.getOrDefault("startTime", "0"));
+        long endTime = params.containsKey("endTime") ? Long.parseLong(params.get("endTime")) + 1 : Long.MAX_VALUE;
+        long toTime = Math.min(endTime, startTime + limit * intervalMills);
+
+        MarketSeries rows = source.read(startTime, toTime);
+        StringBuilder body = new StringBuilder(rows.size() * 128).append('[');
+        for (int i = 0; i < rows.size() && i < limit; i++) {
+            String average = String.valueOf(rows.average(i));
+            body.append(i == 0 ? "" : ",")
+                    .append('[').append(rows.time(i))
+                    .append(",\"").append(average)
+                    .append("\",\"").append(rows.high(i))
+                    .append("\",\"").append(rows.low(i))
+                    .append("\",\"").append(average)
+                    .append("\",\"").append(rows.volume(i))
+                    .append("\",").append(rows.time(i) + intervalMills - 1)
+                    .append(",\"0\",0,\"0\",\"0\",\"0\"]");
+        }
+        send(exchange, 200, body.append(']').toString());
+    }
+
+    private void sendError(HttpExchange exchange, int status, int code, String message) throws IOException {
+        errors.increment();
+        send(exchange, status, String.format("{\"code\":%d,\"msg\":\"%s\"}", code, message));
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(bytes);
+            }
+            bytes = compressed.toByteArray();
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json;charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Интервал Binance в миллисекундах: "1s" и интервалы агрегатов {@link Resolution}
+     * @return null для неподдерживаемого интервала
+     */
+    public static Long intervalMills(String interval) {
+        if ("1s".equals(interval)) {
+            return 1000L;
+        }
+        for (Resolution resolution : Resolution.values()) {
+            if (resolution.suffix().equals(interval)) {
+                return resolution.mills();
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+}
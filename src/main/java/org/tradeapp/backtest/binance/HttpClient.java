@@ -5,22 +5,81 @@ import org.tradeapp.backtest.domain.APIError;
 import org.tradeapp.backtest.domain.HTTPResponse;
 import org.tradeapp.utils.Log;
 
-import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
+import java.io.InputStream;
 import java.net.URI;
-import java.net.URL;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
+import static org.tradeapp.backtest.constants.Settings.BINANCE_BASE_URL;
 import static org.tradeapp.backtest.constants.Settings.mapper;
 
+/**
+ * Транспорт запросов к Binance на {@link java.net.http.HttpClient}: один клиент на JVM с пулом keep-alive соединений
+ * и HTTP/2 (параллельные запросы идут по одному TLS соединению), тела ответов запрашиваются в gzip.
+ * <p>
+ * Все клиенты по умолчанию используют общие транспорт и {@link RequestScheduler}, так как лимиты веса считаются на IP.
+ * Время ожидания в очереди, время запроса и объем данных копятся в {@link RequestStatistics}.
+ */
 public class HttpClient {
 
-    private static final String BASE_URL = "https://api.binance.com";
+    /**
+     * Сколько раз повторяется запрос после 429/418/5xx или ошибки сети
+     */
+    private static final int MAX_RETRIES = 8;
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    private static final java.net.http.HttpClient TRANSPORT = java.net.http.HttpClient.newBuilder()
+            .version(java.net.http.HttpClient.Version.HTTP_2)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .executor(EXECUTOR)
+            .build();
+    private static final RequestScheduler DEFAULT_SCHEDULER = new RequestScheduler();
+    private static final RequestStatistics DEFAULT_STATISTICS = new RequestStatistics();
 
     private final Log log = new Log();
+    private final String baseUrl;
+    private final RequestScheduler scheduler;
+    private final RequestStatistics statistics;
+
+    public HttpClient() {
+        this(BINANCE_BASE_URL, DEFAULT_SCHEDULER, DEFAULT_STATISTICS);
+    }
+
+    /**
+     * @param scheduler очередь запросов, общая для всех клиентов, которые ходят на биржу с одного IP
+     */
+    public HttpClient(RequestScheduler scheduler) {
+        this(BINANCE_BASE_URL, scheduler, new RequestStatistics());
+    }
+
+    /**
+     * @param baseUrl адрес REST API, например {@link BinanceStubServer#getBaseUrl()} для работы без сети
+     */
+    public HttpClient(String baseUrl, RequestScheduler scheduler) {
+        this(baseUrl, scheduler, new RequestStatistics());
+    }
+
+    private HttpClient(String baseUrl, RequestScheduler scheduler, RequestStatistics statistics) {
+        this.baseUrl = baseUrl;
+        this.scheduler = scheduler;
+        this.statistics = statistics;
+    }
+
+    public RequestStatistics getStatistics() {
+        return statistics;
+    }
 
     protected String getParamsString(Map<String, String> params) {
         return params.entrySet().stream()
@@ -30,46 +89,144 @@ public class HttpClient {
     }
 
     public HTTPResponse<String, APIError> sendPublicRequest(String endpoint, String method, Map<String, String> params, long currentTime) {
+        return sendPublicRequest(endpoint, method, params, 1, RequestScheduler.Priority.LIVE, currentTime);
+    }
+
+    /**
+     * Отправляет запрос через {@link RequestScheduler}: запрос ждет свободного веса в текущей минуте,
+     * после 429/418/5xx или ошибки сети повторяется после паузы вместо ошибки.
+     * Поток ждет ответа, поэтому для множества параллельных запросов вызывать из виртуальных потоков
+     * или через {@link #sendPublicRequestAsync}.
+     * @param weight вес запроса по документации Binance
+     */
+    public HTTPResponse<String, APIError> sendPublicRequest(String endpoint, String method, Map<String, String> params,
+                                                            int weight, RequestScheduler.Priority priority, long currentTime) {
+        return sendPublicRequest(endpoint, method, params, weight, priority, HttpClient::readString, currentTime);
+    }
+
+    /**
+     * Успешный ответ разбирается parser прямо из потока тела (уже распакованного), без промежуточной строки.
+     * Тело ответа с ошибкой читается в строку и разбирается как {@link APIError}.
+     */
+    public <T> HTTPResponse<T, APIError> sendPublicRequest(String endpoint, String method, Map<String, String> params,
+                                                           int weight, RequestScheduler.Priority priority,
+                                                           BodyParser<T> parser, long currentTime) {
         try {
-//            long start = System.nanoTime();
-//            log.debug(String.format("[REQUEST START] HTTP %s to %s", method, endpoint), currentTime);
+            HttpRequest request = HttpRequest.newBuilder(new URI(baseUrl + endpoint + "?" + getParamsString(params)))
+                    .method(method, HttpRequest.BodyPublishers.noBody())
+                    .header("Accept-Encoding", "gzip")
+                    .timeout(REQUEST_TIMEOUT)
+                    .build();
+            for (int attempt = 0; ; attempt++) {
+                long queueStart = System.nanoTime();
+                scheduler.acquire(weight, priority);
+                long requestStart = System.nanoTime();
+                HttpResponse<InputStream> response;
+                try {
+                    response = TRANSPORT.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                } catch (IOException e) {
+                    if (attempt == MAX_RETRIES) {
+                        throw e;
+                    }
+                    log.warn(String.format("HTTP %s to %s failed: %s, retrying", method, endpoint, e.getMessage()), currentTime);
+                    statistics.retry();
+                    scheduler.onFailure();
+                    continue;
+                }
+                int responseCode = response.statusCode();
+                boolean retry = scheduler.onResponse(responseCode,
+                        response.headers().firstValue(RequestScheduler.USED_WEIGHT_HEADER).orElse(null),
+                        response.headers().firstValue(RequestScheduler.RETRY_AFTER_HEADER).orElse(null));
+                CountingInputStream wire = new CountingInputStream(response.body());
+                CountingInputStream body = new CountingInputStream(decode(response, wire));
+                try (body) {
+                    if (retry && attempt < MAX_RETRIES) {
+                        statistics.retry();
+                        continue;
+                    }
+                    if (responseCode >= 200 && responseCode < 300) {
+                        return HTTPResponse.success(responseCode, parser.parse(body));
+                    }
+                    String error = readString(body);
+                    log.warn(String.format("Response code: %d, Error body: %s", responseCode, error), currentTime);
+                    return HTTPResponse.error(responseCode, parseAPIError(error, currentTime));
+                } finally {
+                    statistics.record(requestStart - queueStart, System.nanoTime() - requestStart, wire.count, body.count);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw log.throwError("Interrupted while waiting for HTTP response", e, currentTime);
+        } catch (Exception e) {
+            throw log.throwError("Failed to send HTTP request", e, currentTime);
+        }
+    }
 
-            String query = getParamsString(params);
-            URL url = new URI(BASE_URL + endpoint + "?" + query).toURL();
-//            log.debug(String.format("Generated URL: %s", url), currentTime);
+    /**
+     * Асинхронный вариант {@link #sendPublicRequest}: ожидание очереди и ответа выполняется на виртуальном потоке
+     */
+    public CompletableFuture<HTTPResponse<String, APIError>> sendPublicRequestAsync(String endpoint, String method, Map<String, String> params,
+                                                                                   int weight, RequestScheduler.Priority priority, long currentTime) {
+        return sendPublicRequestAsync(endpoint, method, params, weight, priority, HttpClient::readString, currentTime);
+    }
 
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod(method);
-//            log.debug(String.format("Request properties: %s", connection.getRequestProperties()), currentTime);
+    public <T> CompletableFuture<HTTPResponse<T, APIError>> sendPublicRequestAsync(String endpoint, String method, Map<String, String> params,
+                                                                              int weight, RequestScheduler.Priority priority,
+                                                                              BodyParser<T> parser, long currentTime) {
+        return CompletableFuture.supplyAsync(() -> sendPublicRequest(endpoint, method, params, weight, priority, parser, currentTime), EXECUTOR);
+    }
 
-            int responseCode = connection.getResponseCode();
-//            Map<String, List<String>> headers = connection.getHeaderFields();
-//            log.debug(String.format("Response headers: %s", headers), currentTime);
+    private static InputStream decode(HttpResponse<InputStream> response, InputStream wire) throws IOException {
+        boolean gzip = response.headers().firstValue("Content-Encoding").map("gzip"::equalsIgnoreCase).orElse(false);
+        return gzip ? new GZIPInputStream(wire) : wire;
+    }
 
-//            long finish = System.nanoTime();
-//            double elapsedMs = (finish - start) / 1_000_000.0;
-//            log.debug(String.format("[REQUEST END] HTTP GET to %s completed in %.2f ms", endpoint, elapsedMs), currentTime);
+    private static String readString(InputStream body) throws IOException {
+        return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+    }
 
-            return readResponse(connection, responseCode, currentTime);
-        } catch (Exception e) {
-            throw log.throwError("Failed to send HTTP request", e, currentTime);
-        }
+    /**
+     * Разбор тела успешного ответа из потока. Поток закрывается после разбора.
+     */
+    @FunctionalInterface
+    public interface BodyParser<T> {
+        T parse(InputStream body) throws IOException;
     }
 
-    private HTTPResponse<String, APIError> readResponse(HttpURLConnection connection, int responseCode, long currentTime) throws IOException {
+    /**
+     * Считает прочитанные байты для {@link RequestStatistics}
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count = 0L;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
 
-        if (responseCode >= 200 && responseCode < 300) {
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
-                String response = reader.lines().collect(Collectors.joining());
-//                log.debug(String.format("Response code: %d, Response body: %s", responseCode, response), currentTime);
-                return HTTPResponse.success(responseCode, response);
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                count++;
             }
-        } else {
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getErrorStream()))) {
-                String errorResponse = reader.lines().collect(Collectors.joining());
-                log.warn(String.format("Response code: %d, Error body: %s", responseCode, errorResponse), currentTime);
-                return HTTPResponse.error(responseCode, parseAPIError(errorResponse, currentTime));
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
             }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
         }
     }
 
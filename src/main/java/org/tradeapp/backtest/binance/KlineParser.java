@@ -0,0 +1,97 @@
+package org.tradeapp.backtest.binance;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.tradeapp.backtest.domain.ArrayMarketSeries;
+import org.tradeapp.backtest.domain.MarketSeriesBuilder;
+import org.tradeapp.backtest.storage.AsciiNumbers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static org.tradeapp.backtest.constants.Settings.mapper;
+
+/**
+ * Потоковый разбор ответа /api/v3/klines прямо из тела ответа.
+ * <p>
+ * Свеча - массив [openTime, open, high, low, close, volume, ...], цены и объем приходят строками.
+ * Парсер идет по токенам и кладет время, high, low и объем сразу в колонки {@link MarketSeriesBuilder}:
+ * без строки ответа, дерева узлов и объектов на свечу. Символы строкового числа копируются из буфера токена
+ * в один байтовый буфер на ответ и разбираются через {@link AsciiNumbers}, остальные поля свечи пропускаются.
+ */
+public final class KlineParser {
+
+    private static final int OPEN_TIME_FIELD = 0;
+    private static final int HIGH_FIELD = 2;
+    private static final int LOW_FIELD = 3;
+    private static final int VOLUME_FIELD = 5;
+    /**
+     * Длиннее строковые числа (и не ASCII) разбираются через {@link Double#parseDouble}
+     */
+    private static final int MAX_NUMBER_LENGTH = 64;
+
+    private KlineParser() {  }
+
+    /**
+     * @param expectedRows ожидаемое количество свечей (limit запроса), чтобы колонки не росли при разборе
+     */
+    public static ArrayMarketSeries parse(InputStream body, int expectedRows) throws IOException {
+        MarketSeriesBuilder builder = new MarketSeriesBuilder(expectedRows);
+        ByteBuffer number = ByteBuffer.allocate(MAX_NUMBER_LENGTH);
+        try (JsonParser parser = mapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new JsonParseException(parser, "Klines response is not an array");
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.START_ARRAY) {
+                long time = 0L;
+                double high = 0.;
+                double low = 0.;
+                double volume = 0.;
+                int field = 0;
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    if (token == null) {
+                        throw new JsonParseException(parser, "Unexpected end of klines response");
+                    }
+                    switch (field++) {
+                        case OPEN_TIME_FIELD -> time = parser.getLongValue();
+                        case HIGH_FIELD -> high = number(parser, number);
+                        case LOW_FIELD -> low = number(parser, number);
+                        case VOLUME_FIELD -> volume = number(parser, number);
+                        default -> parser.skipChildren();
+                    }
+                }
+                if (field <= VOLUME_FIELD) {
+                    throw new JsonParseException(parser, String.format("Kline has %d fields", field));
+                }
+                builder.add(time, high, low, volume);
+            }
+            if (token != JsonToken.END_ARRAY) {
+                throw new JsonParseException(parser, "Unexpected token in klines response: " + token);
+            }
+        }
+        return builder.build();
+    }
+
+    private static double number(JsonParser parser, ByteBuffer number) throws IOException {
+        if (parser.currentToken() != JsonToken.VALUE_STRING) {
+            return parser.getDoubleValue();
+        }
+        int length = parser.getTextLength();
+        if (length > number.capacity()) {
+            return Double.parseDouble(parser.getText());
+        }
+        char[] chars = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        for (int i = 0; i < length; i++) {
+            char symbol = chars[offset + i];
+            if (symbol > 0x7F) {
+                return Double.parseDouble(parser.getText());
+            }
+            number.put(i, (byte) symbol);
+        }
+        return AsciiNumbers.parseDouble(number, 0, length);
+    }
+}
@@ -0,0 +1,195 @@
+package org.tradeapp.backtest.binance;
+
+import org.tradeapp.utils.Log;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Очередь запросов к Binance с учетом веса запросов (REQUEST_WEIGHT, лимит на минуту для IP).
+ * <p>
+ * Перед отправкой запрос резервирует свой вес в текущей минуте, после ответа использованный вес уточняется
+ * по заголовку {@link #USED_WEIGHT_HEADER} (в нем учтены и запросы других процессов с того же IP).
+ * Если бюджет минуты исчерпан, запрос ждет начала следующей минуты.
+ * <p>
+ * Запросы {@link Priority#LIVE} (например, волатильность во время бэктеста) могут использовать весь бюджет и идут первыми,
+ * запросы {@link Priority#BULK} (загрузка истории) используют только часть бюджета и ждут, пока есть ожидающие LIVE запросы.
+ * <p>
+ * После 429 (превышен лимит) или 418 (IP заблокирован) все запросы ждут время из заголовка {@link #RETRY_AFTER_HEADER},
+ * а если заголовка нет - экспоненциальную паузу со случайным разбросом, чтобы потоки не возобновлялись одновременно.
+ */
+public class RequestScheduler {
+
+    public enum Priority { LIVE, BULK }
+
+    public static final String USED_WEIGHT_HEADER = "X-MBX-USED-WEIGHT-1M";
+    public static final String RETRY_AFTER_HEADER = "Retry-After";
+    /**
+     * Лимит веса запросов в минуту для IP по умолчанию
+     */
+    public static final int DEFAULT_WEIGHT_LIMIT = 6000;
+    /**
+     * Запас от лимита биржи: запросы, отправленные одновременно, учитываются биржей не в момент резервирования
+     */
+    private static final double SAFETY_FACTOR = 0.9;
+    /**
+     * Доля бюджета, которую могут использовать BULK запросы, остаток всегда доступен LIVE запросам
+     */
+    private static final double BULK_SHARE = 0.75;
+    private static final long WINDOW_MILLS = 60_000L;
+    private static final long MAX_WINDOW_JITTER_MILLS = 250L;
+    private static final long BASE_BACKOFF_MILLS = 1_000L;
+    private static final long MAX_BACKOFF_MILLS = 60_000L;
+
+    private final Log log = new Log();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final int liveBudget;
+    private final int bulkBudget;
+    private final long windowMills;
+
+    private long windowStart = 0L;
+    private int usedWeight = 0;
+    private long pausedUntil = 0L;
+    private int failures = 0;
+    private int liveWaiting = 0;
+
+    public RequestScheduler() {
+        this(DEFAULT_WEIGHT_LIMIT);
+    }
+
+    public RequestScheduler(int weightLimit) {
+        this(weightLimit, WINDOW_MILLS);
+    }
+
+    RequestScheduler(int weightLimit, long windowMills) {
+        this.liveBudget = (int) (weightLimit * SAFETY_FACTOR);
+        this.bulkBudget = (int) (weightLimit * SAFETY_FACTOR * BULK_SHARE);
+        this.windowMills = windowMills;
+    }
+
+    /**
+     * Ждет, пока запрос с весом weight можно отправить, и резервирует вес в текущей минуте
+     */
+    public void acquire(int weight, Priority priority) throws InterruptedException {
+        lock.lock();
+        try {
+            if (priority == Priority.LIVE) {
+                liveWaiting++;
+            }
+            try {
+                while (true) {
+                    long now = System.currentTimeMillis();
+                    long wait = waitTime(now, weight, priority);
+                    if (wait <= 0) {
+                        usedWeight += weight;
+                        return;
+                    }
+                    changed.await(wait, TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                if (priority == Priority.LIVE) {
+                    liveWaiting--;
+                    changed.signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Учитывает ответ биржи: использованный вес из заголовка и паузу после 429/418/5xx.
+     * @param usedWeightHeader значение {@link #USED_WEIGHT_HEADER} или null
+     * @param retryAfterHeader значение {@link #RETRY_AFTER_HEADER} (секунды) или null
+     * @return true если запрос нужно повторить
+     */
+    public boolean onResponse(int statusCode, String usedWeightHeader, String retryAfterHeader) {
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            rollWindow(now);
+            if (usedWeightHeader != null) {
+                try {
+                    usedWeight = Math.max(usedWeight, Integer.parseInt(usedWeightHeader.trim()));
+                } catch (NumberFormatException ignored) {  }
+            }
+            boolean retry = statusCode == 429 || statusCode == 418 || statusCode >= 500;
+            if (!retry) {
+                failures = 0;
+                return false;
+            }
+            long pause = backoff();
+            if (retryAfterHeader != null) {
+                try {
+                    pause = Math.max(Long.parseLong(retryAfterHeader.trim()) * 1000L, 0L) + jitter(MAX_WINDOW_JITTER_MILLS);
+                } catch (NumberFormatException ignored) {  }
+            }
+            pause(now, pause);
+            log.warn(String.format("HTTP %d, used weight %d, requests paused for %d ms", statusCode, usedWeight, pause), now);
+            return true;
+        } finally {
+            changed.signalAll();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Запрос не дошел до биржи (ошибка сети): пауза со случайным разбросом перед повтором
+     */
+    public void onFailure() {
+        lock.lock();
+        try {
+            pause(System.currentTimeMillis(), backoff());
+        } finally {
+            changed.signalAll();
+            lock.unlock();
+        }
+    }
+
+    private long waitTime(long now, int weight, Priority priority) {
+        if (now < pausedUntil) {
+            return pausedUntil - now;
+        }
+        rollWindow(now);
+        long nextWindow = windowStart + windowMills - now + jitter(MAX_WINDOW_JITTER_MILLS);
+        if (priority == Priority.BULK && liveWaiting > 0) {
+            return nextWindow;
+        }
+        int budget = priority == Priority.LIVE ? liveBudget : bulkBudget;
+        if (usedWeight > 0 && usedWeight + weight > budget) {
+            return nextWindow;
+        }
+        return 0L;
+    }
+
+    /**
+     * Окно Binance - календарная минута, в начале минуты использованный вес обнуляется
+     */
+    private void rollWindow(long now) {
+        long currentWindow = now - now % windowMills;
+        if (currentWindow != windowStart) {
+            windowStart = currentWindow;
+            usedWeight = 0;
+        }
+    }
+
+    private void pause(long now, long pause) {
+        pausedUntil = Math.max(pausedUntil, now + pause);
+    }
+
+    /**
+     * Экспоненциальная пауза от количества неудач подряд, случайная в диапазоне [половина, целая]
+     */
+    private long backoff() {
+        long pause = Math.min(MAX_BACKOFF_MILLS, BASE_BACKOFF_MILLS << Math.min(failures, 16));
+        failures++;
+        return pause / 2 + jitter(pause / 2);
+    }
+
+    private static long jitter(long max) {
+        return max <= 0 ? 0L : ThreadLocalRandom.current().nextLong(max + 1);
+    }
+}
@@ -0,0 +1,70 @@
+package org.tradeapp.backtest.binance;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Накопительная статистика запросов {@link HttpClient}: время ожидания в очереди {@link RequestScheduler},
+ * время запроса до полного чтения и разбора тела, байты по сети (сжатые) и после распаковки.
+ * Счетчики потокобезопасны и не блокируют параллельные запросы.
+ */
+public class RequestStatistics {
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();
+    private final LongAdder roundTripNanos = new LongAdder();
+    private final LongAccumulator maxRoundTripNanos = new LongAccumulator(Math::max, 0L);
+    private final LongAdder wireBytes = new LongAdder();
+    private final LongAdder bodyBytes = new LongAdder();
+
+    void record(long queueNanos, long roundTripNanos, long wireBytes, long bodyBytes) {
+        this.requests.increment();
+        this.queueNanos.add(queueNanos);
+        this.roundTripNanos.add(roundTripNanos);
+        this.maxRoundTripNanos.accumulate(roundTripNanos);
+        this.wireBytes.add(wireBytes);
+        this.bodyBytes.add(bodyBytes);
+    }
+
+    void retry() {
+        retries.increment();
+    }
+
+    public long requests() {
+        return requests.sum();
+    }
+
+    public long retries() {
+        return retries.sum();
+    }
+
+    public double averageQueueMillis() {
+        long count = requests.sum();
+        return count == 0 ? 0. : queueNanos.sum() / 1e6 / count;
+    }
+
+    public double averageRoundTripMillis() {
+        long count = requests.sum();
+        return count == 0 ? 0. : roundTripNanos.sum() / 1e6 / count;
+    }
+
+    public double maxRoundTripMillis() {
+        return maxRoundTripNanos.get() / 1e6;
+    }
+
+    public long wireBytes() {
+        return wireBytes.sum();
+    }
+
+    public long bodyBytes() {
+        return bodyBytes.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("requests %d, retries %d, queue %.1f ms avg, round trip %.1f ms avg / %.1f ms max, %.1f MB on wire, %.1f MB body",
+                requests(), retries(), averageQueueMillis(), averageRoundTripMillis(), maxRoundTripMillis(),
+                wireBytes() / 1e6, bodyBytes() / 1e6);
+    }
+}
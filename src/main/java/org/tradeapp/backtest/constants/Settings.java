@@ -2,6 +2,8 @@ package org.tradeapp.backtest.constants;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.util.List;
+
 public class Settings {
     public static final String PEZDA = """
             
@@ -19,6 +21,10 @@ public class Settings {
             """;
     public static final ObjectMapper mapper = new ObjectMapper();
     public static final String SYMBOL = "BTCUSDT";
+    /**
+     * Символы, которые загружаются и тестируются параллельно в одном процессе (можно переопределить аргументами запуска)
+     */
+    public static final List<String> SYMBOLS = List.of(SYMBOL);
 
     // account parameters
     public static final int BALANCE = 10000;
@@ -56,13 +62,53 @@ public class Settings {
     public static final long MIN_POTENTIAL_COMPLETE_TIME = 2_000L;
     public static final long MIN_COMPLETE_TIME = 60_000L;
     public static final double RETURNED_PRICE_IMBALANCE_PARTITION = 0.5;
+    /**
+     * Сверять быстрый поиск имбаланса с полным проходом по ежесекундным данным на каждом тике (-Dimbalance.verify-detection=true).
+     * Медленно, только для проверки.
+     */
+    public static final boolean VERIFY_IMBALANCE_DETECTION = Boolean.getBoolean("imbalance.verify-detection");
+
+
+    // backtest data parameters
+    /**
+     * Размер блока строк, который потоковый бэктест читает из файла за раз (65536 секунд ~ 18 часов, 2МБ)
+     */
+    public static final int STREAMING_CHUNK_SIZE = 65_536;
+    /**
+     * Сколько прошлых данных хранится для отображения в UI в потоковом режиме (2 часа)
+     */
+    public static final long HISTORY_LIVE_TIME = 2 * 60 * 60_000L;
+
+    // exchange API parameters
+    /**
+     * Адрес REST API Binance. Переопределяется свойством -Dbinance.base-url, например адресом
+     * {@link org.tradeapp.backtest.binance.BinanceStubServer} для загрузки и бэктеста без сети.
+     */
+    public static final String BINANCE_BASE_URL = System.getProperty("binance.base-url", "https://api.binance.com");
+
+    // market data download parameters
+    /**
+     * Сколько запросов исторических данных выполняется одновременно (ограничение бюджета запросов API)
+     */
+    public static final int DOWNLOAD_CONCURRENCY = 8;
+    /**
+     * На сколько страниц по 1000 секунд загрузка может опережать запись в файл (на каждый одновременный запрос)
+     */
+    public static final int DOWNLOAD_PAGES_AHEAD = 4;
+    /**
+     * Сколько загруженных секунд копится в промежуточном сегменте перед фиксацией в партиции (6 часов)
+     */
+    public static final int DOWNLOAD_COMMIT_ROWS = 6 * 60 * 60;
+    /**
+     * Сколько месячных архивов Binance разбирается одновременно при импорте (месяц ежесекундных данных ~ 85МБ в памяти)
+     */
+    public static final int IMPORT_CONCURRENCY = 4;
 
 
     //volatility parameters
     /**
-     * Период обновления волатильности и средней цены (1000мс * 60с * 60м * 24ч = 1 день)
+     * Скользящие окна волатильности и средней цены в днях, значения обновляются после каждой закрытой свечи 15m
      */
-    public static final long UPDATE_TIME_PERIOD_MILLS = 24L * 60L * 60L * 1000L;
     public static final int VOLATILITY_CALCULATE_PAST_TIME_DAYS = 1;
     public static final int AVERAGE_PRICE_CALCULATE_PAST_TIME_DAYS = 1;
 
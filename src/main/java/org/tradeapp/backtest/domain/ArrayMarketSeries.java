@@ -0,0 +1,63 @@
+package org.tradeapp.backtest.domain;
+
+/**
+ * Ряд на параллельных массивах long[] и double[]. Срезы используют те же массивы со смещением.
+ */
+public class ArrayMarketSeries implements MarketSeries {
+
+    public static final ArrayMarketSeries EMPTY = new ArrayMarketSeries(new long[0], new double[0], new double[0], new double[0], 0, 0);
+
+    private final long[] times;
+    private final double[] highs;
+    private final double[] lows;
+    private final double[] volumes;
+    private final int offset;
+    private final int size;
+
+    public ArrayMarketSeries(long[] times, double[] highs, double[] lows, double[] volumes, int offset, int size) {
+        this.times = times;
+        this.highs = highs;
+        this.lows = lows;
+        this.volumes = volumes;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long time(int index) {
+        return times[offset + index];
+    }
+
+    @Override
+    public double high(int index) {
+        return highs[offset + index];
+    }
+
+    @Override
+    public double low(int index) {
+        return lows[offset + index];
+    }
+
+    @Override
+    public double volume(int index) {
+        return volumes[offset + index];
+    }
+
+    @Override
+    public ArrayMarketSeries slice(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException(String.format("slice [%d, %d) of %d", from, to, size));
+        }
+        return new ArrayMarketSeries(times, highs, lows, volumes, offset + from, to - from);
+    }
+
+    @Override
+    public String toString() {
+        return isEmpty() ? "MarketSeries[]" : String.format("MarketSeries[%d entries from %d to %d]", size, firstTime(), lastTime());
+    }
+}
@@ -0,0 +1,110 @@
+package org.tradeapp.backtest.domain;
+
+/**
+ * Кольцевой буфер последних строк за время liveTime для потокового бэктеста.
+ * Через него доступны окна в прошлое (например для отображения в UI), пока весь год в память не загружается.
+ * Срезы копируются, так как буфер перезаписывается следующими тиками.
+ */
+public class MarketHistoryBuffer implements MarketSeries {
+
+    private final long liveTime;
+    private long[] times;
+    private double[] highs;
+    private double[] lows;
+    private double[] volumes;
+    private int head = 0;
+    private int size = 0;
+
+    public MarketHistoryBuffer(long liveTime) {
+        this.liveTime = liveTime;
+        int capacity = (int) Math.max(16, liveTime / 1000L + 1);
+        this.times = new long[capacity];
+        this.highs = new double[capacity];
+        this.lows = new double[capacity];
+        this.volumes = new double[capacity];
+    }
+
+    /**
+     * Добавляет строку и удаляет строки старше liveTime от нее
+     */
+    public void add(long time, MarketEntry entry) {
+        while (size > 0 && time - times[head] > liveTime) {
+            head = (head + 1) % times.length;
+            size--;
+        }
+        if (size == times.length) {
+            grow();
+        }
+        int index = (head + size) % times.length;
+        times[index] = time;
+        highs[index] = entry.high();
+        lows[index] = entry.low();
+        volumes[index] = entry.volume();
+        size++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long time(int index) {
+        return times[physical(index)];
+    }
+
+    @Override
+    public double high(int index) {
+        return highs[physical(index)];
+    }
+
+    @Override
+    public double low(int index) {
+        return lows[physical(index)];
+    }
+
+    @Override
+    public double volume(int index) {
+        return volumes[physical(index)];
+    }
+
+    @Override
+    public ArrayMarketSeries slice(int from, int to) {
+        MarketSeriesBuilder builder = new MarketSeriesBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            int index = physical(i);
+            builder.add(times[index], highs[index], lows[index], volumes[index]);
+        }
+        return builder.build();
+    }
+
+    private int physical(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.format("index %d of %d", index, size));
+        }
+        return (head + index) % times.length;
+    }
+
+    /**
+     * Емкость рассчитана на одну строку в секунду, расширение - страховка для более частых данных
+     */
+    private void grow() {
+        int capacity = times.length * 2;
+        long[] newTimes = new long[capacity];
+        double[] newHighs = new double[capacity];
+        double[] newLows = new double[capacity];
+        double[] newVolumes = new double[capacity];
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % times.length;
+            newTimes[i] = times[index];
+            newHighs[i] = highs[index];
+            newLows[i] = lows[index];
+            newVolumes[i] = volumes[index];
+        }
+        times = newTimes;
+        highs = newHighs;
+        lows = newLows;
+        volumes = newVolumes;
+        head = 0;
+    }
+}
@@ -0,0 +1,70 @@
+package org.tradeapp.backtest.domain;
+
+/**
+ * Упорядоченный по времени ряд ежесекундных данных с доступом по индексу.
+ * Заменяет TreeMap&lt;Long, MarketEntry&gt;: вместо узлов дерева и упакованных ключей - параллельные колонки примитивов.
+ */
+public interface MarketSeries {
+
+    int size();
+
+    long time(int index);
+
+    double high(int index);
+
+    double low(int index);
+
+    double volume(int index);
+
+    /**
+     * Подряд идущие строки [from, to).
+     */
+    MarketSeries slice(int from, int to);
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    default double average(int index) {
+        return (low(index) + high(index)) / 2.;
+    }
+
+    default MarketEntry entry(int index) {
+        return new MarketEntry(high(index), low(index), volume(index));
+    }
+
+    default long firstTime() {
+        return time(0);
+    }
+
+    default long lastTime() {
+        return time(size() - 1);
+    }
+
+    /**
+     * Бинарный поиск первой строки со временем не меньше time.
+     * @return индекс строки или size() если таких строк нет
+     */
+    default int ceilingIndex(long time) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (time(middle) < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Строки со временем в [fromTime, toTime), аналог TreeMap.subMap(fromTime, toTime).
+     */
+    default MarketSeries subRange(long fromTime, long toTime) {
+        int from = ceilingIndex(fromTime);
+        int to = Math.max(from, ceilingIndex(toTime));
+        return slice(from, to);
+    }
+}
@@ -0,0 +1,76 @@
+package org.tradeapp.backtest.domain;
+
+import java.util.Arrays;
+
+/**
+ * Накопление строк в растущие массивы примитивов с последующей сборкой {@link ArrayMarketSeries}.
+ */
+public class MarketSeriesBuilder {
+
+    private long[] times;
+    private double[] highs;
+    private double[] lows;
+    private double[] volumes;
+    private int size = 0;
+
+    public MarketSeriesBuilder() {
+        this(1024);
+    }
+
+    public MarketSeriesBuilder(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 16);
+        this.times = new long[capacity];
+        this.highs = new double[capacity];
+        this.lows = new double[capacity];
+        this.volumes = new double[capacity];
+    }
+
+    public MarketSeriesBuilder add(long time, double high, double low, double volume) {
+        if (size == times.length) {
+            grow(size + 1);
+        }
+        times[size] = time;
+        highs[size] = high;
+        lows[size] = low;
+        volumes[size] = volume;
+        size++;
+        return this;
+    }
+
+    public MarketSeriesBuilder addAll(MarketSeries series) {
+        if (size + series.size() > times.length) {
+            grow(size + series.size());
+        }
+        for (int i = 0; i < series.size(); i++) {
+            times[size] = series.time(i);
+            highs[size] = series.high(i);
+            lows[size] = series.low(i);
+            volumes[size] = series.volume(i);
+            size++;
+        }
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long lastTime() {
+        return times[size - 1];
+    }
+
+    /**
+     * Собирает ряд поверх текущих массивов без копирования. После сборки билдер не переиспользуется.
+     */
+    public ArrayMarketSeries build() {
+        return new ArrayMarketSeries(times, highs, lows, volumes, 0, size);
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, times.length + (times.length >> 1));
+        times = Arrays.copyOf(times, capacity);
+        highs = Arrays.copyOf(highs, capacity);
+        lows = Arrays.copyOf(lows, capacity);
+        volumes = Arrays.copyOf(volumes, capacity);
+    }
+}
@@ -0,0 +1,266 @@
+package org.tradeapp.backtest.domain;
+
+/**
+ * Скользящее окно последних строк для анализа на каждом тике: кольцо из колонок примитивов фиксированной емкости.
+ * <p>
+ * В отличие от TreeMap добавление и удаление самой старой строки не создают объектов, доступ по индексу (0 - самая старая строка)
+ * и обход в обратном порядке - O(1) на строку, поиск по времени - бинарный ({@link #ceilingIndex}).
+ * Какие строки удалять, решает владелец окна через {@link #removeFirst()}.
+ * <p>
+ * Для поиска экстремумов на отрезке окна по ячейкам кольца построены деревья отрезков минимумов low и максимумов high:
+ * запрос {@link #minLowIndex}/{@link #maxHighIndex} - O(log n), добавление строки обновляет путь от листа до корня.
+ * Удаленные строки остаются в листьях, но в запросы попадают только узлы, целиком лежащие внутри окна.
+ * Срезы копируются, так как окно перезаписывается следующими тиками.
+ */
+public class MarketWindow implements MarketSeries {
+
+    private long[] times;
+    private double[] highs;
+    private double[] lows;
+    private double[] volumes;
+    /**
+     * Деревья отрезков по ячейкам кольца: узел i - ячейка с минимальным low (максимальным high) среди листьев поддерева,
+     * листья - узлы [capacity, 2 * capacity). При равенстве выбирается левая ячейка.
+     */
+    private int[] minLowTree;
+    private int[] maxHighTree;
+    private int mask;
+    private int head = 0;
+    private int size = 0;
+    private long firstSequence = 0L;
+
+    /**
+     * @param capacity ожидаемое максимальное количество строк, округляется вверх до степени двойки
+     */
+    public MarketWindow(int capacity) {
+        allocate(Integer.highestOneBit(Math.max(16, capacity - 1)) << 1);
+    }
+
+    public void add(long time, double high, double low, double volume) {
+        if (size == times.length) {
+            grow();
+        }
+        int index = (head + size) & mask;
+        times[index] = time;
+        highs[index] = high;
+        lows[index] = low;
+        volumes[index] = volume;
+        size++;
+        updateTrees(index);
+    }
+
+    public void removeFirst() {
+        if (size == 0) {
+            throw new IndexOutOfBoundsException("window is empty");
+        }
+        head = (head + 1) & mask;
+        size--;
+        firstSequence++;
+    }
+
+    /**
+     * Порядковый номер строки среди всех добавленных в окно, не меняется при удалении старых строк
+     */
+    public long sequence(int index) {
+        physical(index);
+        return firstSequence + index;
+    }
+
+    /**
+     * Индекс строки по порядковому номеру {@link #sequence(int)}
+     */
+    public int indexOf(long sequence) {
+        return (int) (sequence - firstSequence);
+    }
+
+    /**
+     * Порядковый номер самой старой строки окна
+     */
+    public long firstSequence() {
+        return firstSequence;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long time(int index) {
+        return times[physical(index)];
+    }
+
+    @Override
+    public double high(int index) {
+        return highs[physical(index)];
+    }
+
+    @Override
+    public double low(int index) {
+        return lows[physical(index)];
+    }
+
+    @Override
+    public double volume(int index) {
+        return volumes[physical(index)];
+    }
+
+    /**
+     * Строка с минимальным low среди [from, to), при равенстве - самая старая
+     * @return индекс строки или -1 для пустого отрезка
+     */
+    public int minLowIndex(int from, int to) {
+        return query(minLowTree, lows, false, from, to);
+    }
+
+    /**
+     * Строка с максимальным high среди [from, to), при равенстве - самая старая
+     * @return индекс строки или -1 для пустого отрезка
+     */
+    public int maxHighIndex(int from, int to) {
+        return query(maxHighTree, highs, true, from, to);
+    }
+
+    /**
+     * Бинарный поиск без проверки границ на каждом шаге
+     */
+    @Override
+    public int ceilingIndex(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[(head + middle) & mask] < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public ArrayMarketSeries slice(int from, int to) {
+        MarketSeriesBuilder builder = new MarketSeriesBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            int index = physical(i);
+            builder.add(times[index], highs[index], lows[index], volumes[index]);
+        }
+        return builder.build();
+    }
+
+    private int physical(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.format("index %d of %d", index, size));
+        }
+        return (head + index) & mask;
+    }
+
+    /**
+     * Отрезок окна [from, to) в кольце - один или два (при переходе через конец массива) отрезка ячеек,
+     * первый из них старше, поэтому при равенстве выбирается он
+     */
+    private int query(int[] tree, double[] values, boolean maximum, int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException(String.format("range [%d, %d) of %d", from, to, size));
+        }
+        if (from == to) {
+            return -1;
+        }
+        int start = (head + from) & mask;
+        int end = start + (to - from);
+        int best;
+        if (end <= times.length) {
+            best = queryNodes(tree, values, maximum, start + times.length, end + times.length);
+        } else {
+            best = better(values, maximum,
+                    queryNodes(tree, values, maximum, start + times.length, 2 * times.length),
+                    queryNodes(tree, values, maximum, times.length, end));
+        }
+        return (best - head) & mask;
+    }
+
+    /**
+     * Запрос по узлам [left, right) уровня листьев снизу вверх, результаты левой и правой границы копятся отдельно,
+     * чтобы при равенстве оставалась левая ячейка
+     */
+    private static int queryNodes(int[] tree, double[] values, boolean maximum, int left, int right) {
+        int leftBest = -1;
+        int rightBest = -1;
+        while (left < right) {
+            if ((left & 1) == 1) {
+                leftBest = better(values, maximum, leftBest, tree[left++]);
+            }
+            if ((right & 1) == 1) {
+                rightBest = better(values, maximum, tree[--right], rightBest);
+            }
+            left >>= 1;
+            right >>= 1;
+        }
+        return better(values, maximum, leftBest, rightBest);
+    }
+
+    /**
+     * @return first, если second не строго лучше
+     */
+    private static int better(double[] values, boolean maximum, int first, int second) {
+        if (first < 0) {
+            return second;
+        }
+        if (second < 0) {
+            return first;
+        }
+        return (maximum ? values[second] > values[first] : values[second] < values[first]) ? second : first;
+    }
+
+    private void updateTrees(int index) {
+        int node = index + times.length;
+        minLowTree[node] = index;
+        maxHighTree[node] = index;
+        for (node >>= 1; node > 0; node >>= 1) {
+            minLowTree[node] = better(lows, false, minLowTree[2 * node], minLowTree[2 * node + 1]);
+            maxHighTree[node] = better(highs, true, maxHighTree[2 * node], maxHighTree[2 * node + 1]);
+        }
+    }
+
+    private void allocate(int capacity) {
+        times = new long[capacity];
+        highs = new double[capacity];
+        lows = new double[capacity];
+        volumes = new double[capacity];
+        minLowTree = new int[2 * capacity];
+        maxHighTree = new int[2 * capacity];
+        for (int i = 0; i < capacity; i++) {
+            minLowTree[capacity + i] = i;
+            maxHighTree[capacity + i] = i;
+        }
+        for (int node = capacity - 1; node > 0; node--) {
+            minLowTree[node] = minLowTree[2 * node];
+            maxHighTree[node] = maxHighTree[2 * node];
+        }
+        mask = capacity - 1;
+    }
+
+    /**
+     * Емкость рассчитана на одну строку в секунду, расширение - страховка для более частых данных
+     */
+    private void grow() {
+        long[] oldTimes = times;
+        double[] oldHighs = highs;
+        double[] oldLows = lows;
+        double[] oldVolumes = volumes;
+        int oldMask = mask;
+        allocate(oldTimes.length * 2);
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) & oldMask;
+            times[i] = oldTimes[index];
+            highs[i] = oldHighs[index];
+            lows[i] = oldLows[index];
+            volumes[i] = oldVolumes[index];
+        }
+        head = 0;
+        for (int i = 0; i < size; i++) {
+            updateTrees(i);
+        }
+    }
+}
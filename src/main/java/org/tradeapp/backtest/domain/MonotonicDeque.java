@@ -0,0 +1,104 @@
+package org.tradeapp.backtest.domain;
+
+/**
+ * Кандидаты в экстремумы скользящего окна: строки, для которых нет более новой строки с таким же или более сильным значением.
+ * <p>
+ * Для минимума в очереди остаются строки, low которых строго меньше low всех более новых строк окна, поэтому значения
+ * возрастают от старых к новым (для максимума - убывают). Строка, вытесненная более новой, не нужна в запросах
+ * "самая новая строка с ценой не хуже заданной", так как более новая строка удовлетворяет им не хуже.
+ * Добавление и удаление - амортизированно O(1) без создания объектов, строки задаются порядковыми номерами окна
+ * ({@link MarketWindow#sequence(int)}).
+ */
+public class MonotonicDeque {
+
+    private final boolean maximum;
+    private long[] sequences;
+    private double[] values;
+    private int mask;
+    private int head = 0;
+    private int size = 0;
+
+    /**
+     * @param maximum true - кандидаты в максимумы, false - в минимумы
+     */
+    public MonotonicDeque(int capacity, boolean maximum) {
+        this.maximum = maximum;
+        allocate(Integer.highestOneBit(Math.max(16, capacity - 1)) << 1);
+    }
+
+    /**
+     * Добавляет самую новую строку и вытесняет строки, значение которых не сильнее ее значения
+     */
+    public void push(long sequence, double value) {
+        while (size > 0 && (maximum ? values[last()] <= value : values[last()] >= value)) {
+            size--;
+        }
+        if (size == sequences.length) {
+            grow();
+        }
+        int index = (head + size) & mask;
+        sequences[index] = sequence;
+        values[index] = value;
+        size++;
+    }
+
+    /**
+     * Удаляет строки, вышедшие из окна
+     * @param firstSequence номер самой старой строки окна
+     */
+    public void evict(long firstSequence) {
+        while (size > 0 && sequences[head] < firstSequence) {
+            head = (head + 1) & mask;
+            size--;
+        }
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index 0 - самый старый кандидат
+     */
+    public long sequence(int index) {
+        return sequences[physical(index)];
+    }
+
+    public double value(int index) {
+        return values[physical(index)];
+    }
+
+    private int last() {
+        return (head + size - 1) & mask;
+    }
+
+    private int physical(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.format("index %d of %d", index, size));
+        }
+        return (head + index) & mask;
+    }
+
+    private void allocate(int capacity) {
+        sequences = new long[capacity];
+        values = new double[capacity];
+        mask = capacity - 1;
+    }
+
+    private void grow() {
+        long[] oldSequences = sequences;
+        double[] oldValues = values;
+        int oldMask = mask;
+        allocate(oldSequences.length * 2);
+        for (int i = 0; i < size; i++) {
+            sequences[i] = oldSequences[(head + i) & oldMask];
+            values[i] = oldValues[(head + i) & oldMask];
+        }
+        head = 0;
+    }
+}
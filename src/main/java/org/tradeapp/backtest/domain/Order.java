@@ -94,10 +94,18 @@ public class Order implements Serializable {
         return stopLossPrice;
     }
 
+    public double getExecutionPrice() {
+        return executionPrice;
+    }
+
     public void setExecutionPrice(double executionPrice) {
         this.executionPrice = executionPrice;
     }
 
+    public long getCreateTime() {
+        return createTime;
+    }
+
     public void setCreateTime(long createTime) {
         this.createTime = createTime;
     }
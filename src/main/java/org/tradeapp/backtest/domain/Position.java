@@ -115,6 +115,10 @@ public class Position implements Serializable {
         return stopLossPrice;
     }
 
+    public void setStopLossPrice(double stopLossPrice) {
+        this.stopLossPrice = stopLossPrice;
+    }
+
     public Order getOrder() {
         return order;
     }
@@ -0,0 +1,229 @@
+package org.tradeapp.backtest.service;
+
+import org.tradeapp.backtest.domain.ArrayMarketSeries;
+import org.tradeapp.backtest.domain.MarketSeriesBuilder;
+import org.tradeapp.backtest.storage.AsciiNumbers;
+import org.tradeapp.utils.Log;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.tradeapp.backtest.constants.Settings.IMPORT_CONCURRENCY;
+
+/**
+ * Импорт ежесекундных свечей из архивов Binance public data (data.binance.vision) без обращения к API.
+ * <p>
+ * Архив - SYMBOL-1s-YYYY-MM.zip (или дневной SYMBOL-1s-YYYY-MM-DD.zip) с одним CSV без заголовка:
+ * open_time, open, high, low, close, volume, close_time, ... Рядом лежит SYMBOL-1s-YYYY-MM.zip.CHECKSUM
+ * с SHA-256 архива. С 2025 года время в архивах спота в микросекундах, оно приводится к миллисекундам.
+ * <p>
+ * Архивы разбираются параллельно (не больше {@link org.tradeapp.backtest.constants.Settings#IMPORT_CONCURRENCY} одновременно):
+ * архив читается потоком через {@link ZipInputStream}, контрольная сумма считается в том же проходе,
+ * строки CSV разбираются прямо из байтов буфера. Разобранные месяцы записываются строго по порядку через
+ * {@link FileMarketDataLoader#importEntries}, поэтому манифест, агрегаты и продолжение загрузки работают так же, как после загрузки из API.
+ */
+public class BinanceArchiveImporter {
+
+    public static final String ARCHIVE_EXTENSION = ".zip";
+    public static final String CHECKSUM_EXTENSION = ".CHECKSUM";
+    /**
+     * Время в миллисекундах меньше этого значения до 5138 года, в микросекундах - больше с 1973 года
+     */
+    private static final long MICROSECONDS_THRESHOLD = 100_000_000_000_000L;
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+    private static final int OPEN_TIME_FIELD = 0;
+    private static final int HIGH_FIELD = 2;
+    private static final int LOW_FIELD = 3;
+    private static final int VOLUME_FIELD = 5;
+
+    private final Log log = new Log();
+    private final String symbol;
+    private final FileMarketDataLoader loader;
+
+    public BinanceArchiveImporter(String symbol, FileMarketDataLoader loader) {
+        this.symbol = symbol;
+        this.loader = loader;
+    }
+
+    /**
+     * Импортирует архив или все архивы символа из каталога по возрастанию месяца.
+     * Строки не новее последней сохраненной секунды пропускаются, поэтому повторный импорт ничего не дублирует.
+     * @throws RuntimeException если контрольная сумма архива не совпала
+     */
+    public void importArchives(Path source) {
+        List<Path> archives = archives(source);
+        ArrayDeque<Future<ArrayMarketSeries>> months = new ArrayDeque<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(IMPORT_CONCURRENCY)) {
+            try {
+                int next = 0;
+                while (next < archives.size() || !months.isEmpty()) {
+                    while (next < archives.size() && months.size() < IMPORT_CONCURRENCY) {
+                        Path archive = archives.get(next++);
+                        months.add(executor.submit(() -> readArchive(archive)));
+                    }
+                    ArrayMarketSeries rows = months.poll().get();
+                    int imported = rows.isEmpty() ? 0 : loader.importEntries(rows);
+                    if (imported > 0) {
+                        log.info(String.format("%s: imported %d rows up to %s", symbol, imported,
+                                Instant.ofEpochMilli(rows.lastTime())), rows.lastTime());
+                    }
+                }
+            } finally {
+                months.forEach(month -> month.cancel(true));
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Архивы ежесекундных свечей символа. Имена содержат год и месяц, поэтому сортировка по имени - сортировка по времени.
+     */
+    private List<Path> archives(Path source) {
+        if (!Files.isDirectory(source)) {
+            return List.of(source);
+        }
+        String prefix = symbol + "-1s-";
+        try (Stream<Path> files = Files.list(source)) {
+            return files.filter(path -> path.getFileName().toString().startsWith(prefix) &&
+                            path.getFileName().toString().endsWith(ARCHIVE_EXTENSION))
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Разбирает CSV архива и проверяет SHA-256 всего файла архива по {@link #CHECKSUM_EXTENSION}
+     */
+    ArrayMarketSeries readArchive(Path archive) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        MarketSeriesBuilder builder = new MarketSeriesBuilder();
+        try (InputStream file = new DigestInputStream(new BufferedInputStream(Files.newInputStream(archive)), digest);
+             ZipInputStream zip = new ZipInputStream(file)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.getName().endsWith(".csv")) {
+                    parseCsv(zip, builder);
+                }
+            }
+            // центральный каталог в конце архива ZipInputStream не читает, но он входит в контрольную сумму
+            file.transferTo(OutputStream.nullOutputStream());
+        }
+        verifyChecksum(archive, HexFormat.of().formatHex(digest.digest()));
+        return builder.build();
+    }
+
+    private void verifyChecksum(Path archive, String actual) throws IOException {
+        Path checksumPath = archive.resolveSibling(archive.getFileName() + CHECKSUM_EXTENSION);
+        if (!Files.exists(checksumPath)) {
+            log.warn(String.format("%s has no %s file, archive is not verified", archive.getFileName(), CHECKSUM_EXTENSION),
+                    System.currentTimeMillis());
+            return;
+        }
+        String expected = Files.readString(checksumPath, StandardCharsets.US_ASCII).trim().split("\\s+")[0];
+        if (!expected.equalsIgnoreCase(actual)) {
+            throw new IllegalStateException(String.format("Checksum mismatch for %s: expected %s, actual %s",
+                    archive.getFileName(), expected, actual));
+        }
+    }
+
+    /**
+     * Разбор строк CSV из потока блоками по {@link #READ_BUFFER_SIZE}: строки разбираются прямо в буфере,
+     * недочитанный хвост блока переносится в начало буфера.
+     */
+    static void parseCsv(InputStream input, MarketSeriesBuilder builder) throws IOException {
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        ByteBuffer view = ByteBuffer.wrap(buffer);
+        int length = 0;
+        while (true) {
+            int read = input.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                parseLine(view, 0, length, builder);
+                return;
+            }
+            int lineStart = 0;
+            for (int i = length; i < length + read; i++) {
+                if (buffer[i] == '\n') {
+                    parseLine(view, lineStart, i, builder);
+                    lineStart = i + 1;
+                }
+            }
+            length += read - lineStart;
+            System.arraycopy(buffer, lineStart, buffer, 0, length);
+            if (length == buffer.length) {
+                throw new IOException("CSV line is longer than " + READ_BUFFER_SIZE + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Строка [from, to) без перевода строки. Пустые строки и заголовок пропускаются,
+     * как и строки не новее предыдущей, чтобы время оставалось строго возрастающим.
+     */
+    private static void parseLine(ByteBuffer line, int from, int to, MarketSeriesBuilder builder) {
+        if (to > from && line.get(to - 1) == '\r') {
+            to--;
+        }
+        if (from >= to || line.get(from) < '0' || line.get(from) > '9') {
+            return;
+        }
+        long time = 0L;
+        double high = 0.;
+        double low = 0.;
+        int field = 0;
+        int fieldStart = from;
+        for (int i = from; i <= to && field <= VOLUME_FIELD; i++) {
+            if (i < to && line.get(i) != ',') {
+                continue;
+            }
+            switch (field++) {
+                case OPEN_TIME_FIELD -> time = AsciiNumbers.parseLong(line, fieldStart, i);
+                case HIGH_FIELD -> high = AsciiNumbers.parseDouble(line, fieldStart, i);
+                case LOW_FIELD -> low = AsciiNumbers.parseDouble(line, fieldStart, i);
+                case VOLUME_FIELD -> {
+                    if (time >= MICROSECONDS_THRESHOLD) {
+                        time /= 1000L;
+                    }
+                    if (builder.size() == 0 || time > builder.lastTime()) {
+                        builder.add(time, high, low, AsciiNumbers.parseDouble(line, fieldStart, i));
+                    }
+                }
+                default -> {  }
+            }
+            fieldStart = i + 1;
+        }
+        if (field <= VOLUME_FIELD) {
+            throw new NumberFormatException("CSV line has " + field + " fields");
+        }
+    }
+}
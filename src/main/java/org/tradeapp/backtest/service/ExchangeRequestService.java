@@ -1,17 +1,16 @@
 package org.tradeapp.backtest.service;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import org.tradeapp.backtest.binance.APIService;
+import org.tradeapp.backtest.binance.HttpClient;
+import org.tradeapp.backtest.binance.KlineParser;
+import org.tradeapp.backtest.binance.RequestScheduler;
 import org.tradeapp.backtest.domain.MarketEntry;
+import org.tradeapp.backtest.domain.MarketSeries;
 import org.tradeapp.ui.domain.MarketKlineEntry;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URI;
-import java.net.URL;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
-import java.util.stream.Collectors;
 
 import static org.tradeapp.backtest.constants.Settings.*;
 
@@ -21,6 +20,11 @@ import static org.tradeapp.backtest.constants.Settings.*;
  */
 public class ExchangeRequestService {
 
+    /**
+     * Общий транспорт и очередь запросов с {@link APIService}
+     */
+    private static final HttpClient httpClient = new HttpClient();
+
 //    /**
 //     * Bybit API предоставляет минимум минутные исторические данные
 //     */
@@ -38,22 +42,16 @@ public class ExchangeRequestService {
     /**
      * Binance API предоставляет ежесекундные исторические данные
      */
-    public static TreeMap<Long, MarketEntry> performBinanceMarketDataRequest(long start, int limit) {
-        return performBinanceVMarketDataRequest("1s", start, limit);
+    public static TreeMap<Long, MarketEntry> performBinanceMarketDataRequest(String symbol, long start, int limit) {
+        return performBinanceVMarketDataRequest(symbol, "1s", start, limit);
     }
 
-    public static TreeMap<Long, MarketEntry> performBinanceVMarketDataRequest(String interval, long start, int limit) {
-        List<List<Object>> klineDataList = performBinanceMarketDataRequest(interval, start, limit);
+    public static TreeMap<Long, MarketEntry> performBinanceVMarketDataRequest(String symbol, String interval, long start, int limit) {
+        MarketSeries klines = performBinanceMarketDataRequest(symbol, interval, start, limit);
 
         TreeMap<Long, MarketEntry> priceMap = new TreeMap<>();
-        for (List<Object> kline : klineDataList) {
-            long openTime = ((Number) kline.get(0)).longValue();
-
-            double highPrice = Double.parseDouble((String) kline.get(2));
-            double lowPrice = Double.parseDouble((String) kline.get(3));
-            double volume = Double.parseDouble((String) kline.get(5));
-
-            priceMap.put(openTime, new MarketEntry(highPrice, lowPrice, volume));
+        for (int i = 0; i < klines.size(); i++) {
+            priceMap.put(klines.time(i), klines.entry(i));
         }
         return priceMap;
     }
@@ -76,34 +74,17 @@ public class ExchangeRequestService {
         return marketKlineEntry;
     }
 
-    public static List<List<Object>> performBinanceMarketDataRequest(String interval, long start, int limit) {
-        String requestUrl = String.format("https://api.binance.com/api/v3/klines?" +
-                        "symbol=%s&" +
-                        "interval=%s&" +
-                        "limit=%s&" +
-                        "startTime=%s",
-                SYMBOL, interval, limit, start);
-
-        try {
-            URI uri = URI.create(requestUrl);
-            URL url = uri.toURL();
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            int responseCode = connection.getResponseCode();
-            if (responseCode >= 200 && responseCode < 300) {
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
-                    String response = reader.lines().collect(Collectors.joining());
-                    return mapper.readValue(response, new TypeReference<>() {});
-                }
-            } else {
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getErrorStream()))) {
-                    String errorResponse = reader.lines().collect(Collectors.joining());
-                    throw new RuntimeException(errorResponse);
-                }
-            }
-
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * Свечи разбираются {@link KlineParser} прямо из потока ответа
+     */
+    public static MarketSeries performBinanceMarketDataRequest(String symbol, String interval, long start, int limit) {
+        Map<String, String> params = Map.of(
+                "symbol", symbol,
+                "interval", interval,
+                "limit", String.valueOf(limit),
+                "startTime", String.valueOf(start));
+
+        return httpClient.sendPublicRequest("/api/v3/klines", "GET", params, APIService.KLINES_WEIGHT,
+                RequestScheduler.Priority.LIVE, body -> KlineParser.parse(body, limit), start).getResponse();
     }
 }
@@ -4,6 +4,7 @@ import org.tradeapp.backtest.domain.Account;
 import org.tradeapp.backtest.domain.ExecutionType;
 import org.tradeapp.backtest.domain.Order;
 import org.tradeapp.backtest.domain.Position;
+import org.tradeapp.backtest.storage.TradeJournalWriter;
 import org.tradeapp.utils.Log;
 import org.tradeapp.backtest.domain.MarketEntry;
 
@@ -16,6 +17,7 @@ import java.util.stream.Collectors;
  * Простой симулятор биржи для бессрочной фьючерсной торговли.
  * Поддерживает два типа ордеров: лимитные и рыночные, и два типа торговли: вверх или вниз.
  * Поддерживает комиссии за открытие и закрытие позиций.
+ * Ордера, открытия и закрытия позиций записываются в журнал сделок по мере исполнения.
  */
 public class ExchangeSimulator {
     public static final double MARKET_ORDER_TRADE_FEE = 0.00036;
@@ -24,11 +26,13 @@ public class ExchangeSimulator {
     private final List<Order> limitOrders;
     private final List<Position> positions;
     private final Account account;
+    private final TradeJournalWriter journal;
 
-    public ExchangeSimulator(Account account) {
+    public ExchangeSimulator(Account account, TradeJournalWriter journal) {
         this.limitOrders = new ArrayList<>();
         this.positions = new ArrayList<>();
         this.account = account;
+        this.journal = journal;
     }
 
     public void onTick(long currentTime, MarketEntry currentEntry) {
@@ -41,6 +45,7 @@ public class ExchangeSimulator {
      * Рыночные ордера исполняем сразу
      */
     public void submitOrder(Order order, long currentTime, MarketEntry currentEntry) {
+        journal.order(order);
         if (order.getExecutionType() == ExecutionType.MARKET) {
             executeMarketOrder(order, currentTime, currentEntry);
         } else {
@@ -111,6 +116,7 @@ public class ExchangeSimulator {
     private void openPosition(Order order, long currentTime, MarketEntry currentEntry) {
         Position position = new Position(order, currentEntry, currentTime);
         positions.add(position);
+        journal.positionOpened(position);
         account.updateBalance(position);
         log.debug(String.format("balance updated: %.2f$", account.getBalance()), currentTime);
         log.debug(String.format("%s OPENED ||| price: %.2f$ ||| money: %.2f$ ||| fee: %.2f$ ||| balance: %.2f$ |||",
@@ -124,6 +130,7 @@ public class ExchangeSimulator {
 
     public void closeTake(Position position, long currentTime) {
         position.close(currentTime, position.getTakeProfitPrice());
+        journal.positionClosed(position);
         account.updateBalance(position);
         log.debug(String.format("balance updated: %.2f$", account.getBalance()), currentTime);
         log.debug(String.format("%s CLOSED ||| P&L++++: %.2f$ ||| price: %.2f$ ||| fee: %.2f$ ||| balance: %.2f$ |||",
@@ -138,6 +145,7 @@ public class ExchangeSimulator {
 
     public void closeLoss(Position position, long currentTime) {
         position.close(currentTime, position.getStopLossPrice());
+        journal.positionClosed(position);
         account.updateBalance(position);
         log.debug(String.format("balance updated: %.2f$", account.getBalance()), currentTime);
         log.debug(String.format("%s CLOSED ||| P&L----: %.2f$ ||| price: %.2f$ ||| fee: %.2f$ ||| balance: %.2f$ |||",
@@ -149,6 +157,16 @@ public class ExchangeSimulator {
                 currentTime);
     }
 
+    /**
+     * Закрывает позицию по текущей цене (например, по истечении времени жизни позиции)
+     */
+    public void closeMarket(Position position, long currentTime, double price) {
+        position.close(currentTime, price);
+        journal.positionClosed(position);
+        account.updateBalance(position);
+        log.debug(String.format("balance updated: %.2f$", account.getBalance()), currentTime);
+    }
+
     public List<Position> getOpenPositions() {
         return positions.stream().filter(Position::isOpen).collect(Collectors.toList());
     }
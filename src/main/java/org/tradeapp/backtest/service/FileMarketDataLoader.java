@@ -1,23 +1,51 @@
 package org.tradeapp.backtest.service;
 
 import org.tradeapp.backtest.binance.APIService;
+import org.tradeapp.backtest.binance.RequestScheduler;
+import org.tradeapp.backtest.domain.ArrayMarketSeries;
+import org.tradeapp.backtest.domain.MarketSeries;
+import org.tradeapp.backtest.domain.MarketSeriesBuilder;
+import org.tradeapp.backtest.storage.CompressedMarketDataFile;
+import org.tradeapp.backtest.storage.MappedMarketSeries;
+import org.tradeapp.backtest.storage.MarketDataCursor;
+import org.tradeapp.backtest.storage.MarketDataFile;
+import org.tradeapp.backtest.storage.MarketDataManifest;
+import org.tradeapp.backtest.storage.MarketDataPartition;
+import org.tradeapp.backtest.storage.MarketDataReader;
+import org.tradeapp.backtest.storage.MarketDataRollups;
+import org.tradeapp.backtest.storage.PartitionedMarketDataCursor;
+import org.tradeapp.backtest.storage.Resolution;
+import org.tradeapp.backtest.storage.StagingSegment;
+import org.tradeapp.backtest.storage.StreamingMarketDataCursor;
+import org.tradeapp.backtest.storage.TextMarketDataReader;
 import org.tradeapp.utils.Log;
-import org.tradeapp.backtest.domain.MarketEntry;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.*;
 import java.time.Instant;
+import java.time.Year;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
-import java.util.AbstractMap;
-import java.util.Map;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Stream;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
-public class FileMarketDataLoader {
+import static org.tradeapp.backtest.constants.Settings.DOWNLOAD_COMMIT_ROWS;
+import static org.tradeapp.backtest.constants.Settings.DOWNLOAD_CONCURRENCY;
+import static org.tradeapp.backtest.constants.Settings.DOWNLOAD_PAGES_AHEAD;
+import static org.tradeapp.backtest.constants.Settings.STREAMING_CHUNK_SIZE;
+
+public class FileMarketDataLoader implements MarketDataReader {
 
     public static final int HISTORICAL_DATA_SIZE = 7 * 365 + 170;
     private static final long START_TIME = Instant.now().minus(HISTORICAL_DATA_SIZE, ChronoUnit.DAYS).toEpochMilli();
@@ -33,113 +61,619 @@ public class FileMarketDataLoader {
     private final long startTime = Instant.now().toEpochMilli();
     private final AtomicLong step = new AtomicLong(0L);
 
+    private MarketDataFile writableFile = null;
+    private MarketDataRollups writableRollups = null;
+    private int writableYear = -1;
+    private final MarketDataManifest manifest;
+    private boolean manifestVerified = false;
+    private int downloadConcurrency = DOWNLOAD_CONCURRENCY;
+
     public FileMarketDataLoader(String filePath, String symbol, APIService apiService) {
         this.filePath = filePath;
         this.symbol = symbol;
         this.apiService = apiService;
         this.fullSize = (Instant.now().toEpochMilli() - START_TIME) / interval;
+        this.manifest = MarketDataManifest.load(Paths.get(filePath + MarketDataManifest.EXTENSION), symbol, interval);
+    }
+
+    /**
+     * Число одновременных запросов страниц в {@link #updateOrDownloadData()}, по умолчанию DOWNLOAD_CONCURRENCY
+     */
+    public void setDownloadConcurrency(int downloadConcurrency) {
+        if (downloadConcurrency < 1) {
+            throw new IllegalArgumentException("Download concurrency must be positive: " + downloadConcurrency);
+        }
+        this.downloadConcurrency = downloadConcurrency;
     }
 
+    /**
+     * Догружает данные от последней сохраненной секунды до текущего момента.
+     * Диапазон делится на страницы по {@link #MAX_ROWS_LIMIT} секунд, страницы запрашиваются параллельно на виртуальных потоках
+     * (не больше {@link org.tradeapp.backtest.constants.Settings#DOWNLOAD_CONCURRENCY} запросов одновременно)
+     * и записываются строго по порядку, поэтому манифест и продолжение загрузки работают так же, как при последовательной загрузке.
+     * Загрузка опережает запись не больше чем на DOWNLOAD_PAGES_AHEAD страниц на запрос, поэтому память ограничена.
+     * <p>
+     * Страницы копятся в {@link StagingSegment} и фиксируются в партиции пачками по DOWNLOAD_COMMIT_ROWS секунд.
+     * Прерванная загрузка продолжается с последней зафиксированной секунды из манифеста без чтения данных,
+     * а сегмент, зафиксированный, но не перенесенный до падения, переносится перед продолжением.
+     */
     public void updateOrDownloadData() {
-        Long latestEntry = readLatestSavedEntry();
-
-        if (latestEntry == null) {
-            latestEntry = START_TIME;
-        } else {
-            latestEntry += 1000L;
-        }
-
-        boolean process = true;
-        while (process) {
-            double unprocessedEntriesCount = ((double) (Instant.now().toEpochMilli() - latestEntry)) / (double) interval;
-            int limit;
-            if (unprocessedEntriesCount > 1. && unprocessedEntriesCount < MAX_ROWS_LIMIT) {
-                limit = (int) Math.ceil(unprocessedEntriesCount);
-            } else if (unprocessedEntriesCount <= 1.) {
-                process = false;
-                continue;
-            } else {
-                limit = MAX_ROWS_LIMIT;
+        long toTime = Instant.now().toEpochMilli();
+        try (StagingSegment staging = StagingSegment.open(filePath, DOWNLOAD_COMMIT_ROWS)) {
+            ArrayMarketSeries pending = staging.pending();
+            if (pending != null) {
+                log.info(String.format("%s: applying %d rows of interrupted download", symbol, pending.size()), toTime);
+                commit(staging, pending);
             }
-            TreeMap<Long, MarketEntry> result = apiService.getMarketDataPublicAPI(symbol, "1s", latestEntry, limit, 1735689605000L).getResponse();
-            appendEntries(result);
+            Long latestEntry = readLatestSavedEntry();
+            long fromTime = latestEntry == null ? START_TIME : latestEntry + interval;
+            long pageSize = MAX_ROWS_LIMIT * interval;
 
-            currentSize += result.size();
+            Semaphore permits = new Semaphore(downloadConcurrency);
+            ArrayDeque<Future<MarketSeries>> pages = new ArrayDeque<>();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                try {
+                    long nextPage = fromTime;
+                    while (nextPage < toTime || !pages.isEmpty()) {
+                        while (nextPage < toTime && pages.size() < downloadConcurrency * DOWNLOAD_PAGES_AHEAD) {
+                            long pageStart = nextPage;
+                            long pageEnd = Math.min(toTime, pageStart + pageSize);
+                            pages.add(executor.submit(() -> fetchPage(pageStart, pageEnd, permits)));
+                            nextPage = pageEnd;
+                        }
+                        MarketSeries result = pages.poll().get();
+                        if (result.isEmpty()) {
+                            continue;
+                        }
+                        if (!staging.hasRoom(result.size())) {
+                            commit(staging, staging.seal());
+                        }
+                        staging.append(result);
 
-            double progress = ((double) currentSize) / ((double) fullSize);
-            log.logProgress(startTime, step, progress, "market-data-downloading", latestEntry);
+                        currentSize += result.size();
+                        double progress = ((double) currentSize) / ((double) fullSize);
+                        log.logProgress(startTime, step, progress, "market-data-downloading", result.lastTime());
+                    }
+                    commit(staging, staging.seal());
+                } finally {
+                    pages.forEach(page -> page.cancel(true));
+                }
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } finally {
+                closeWritableFile();
+            }
+        }
+        manifest.missingSeconds().forEach((year, missing) ->
+                log.info(String.format("%s %d: %d missing seconds in known gaps", symbol, year, missing), toTime));
+        log.info(String.format("%s download: %s", symbol, apiService.getStatistics()), toTime);
+    }
 
-            latestEntry = result.lastKey();
+    /**
+     * Переносит строки зафиксированного сегмента в партиции. Строки не новее последней сохраненной пропускаются,
+     * поэтому повторный перенос после падения ничего не дублирует. Партиции и агрегаты фиксируются на диске
+     * до сохранения манифеста, и только после этого сегмент удаляется.
+     */
+    private void commit(StagingSegment staging, MarketSeries rows) {
+        commitEntries(rows);
+        staging.committed();
+    }
 
-            if (result.size() < MAX_ROWS_LIMIT) {
-                process = false;
-            }
+    /**
+     * Дописывает строки, полученные не через API (например, из архивов {@link BinanceArchiveImporter}),
+     * и фиксирует их так же, как загруженные страницы. Строки не новее последней сохраненной секунды пропускаются.
+     * @return количество записанных строк
+     */
+    public int importEntries(MarketSeries rows) {
+        try {
+            return commitEntries(rows);
+        } finally {
+            closeWritableFile();
         }
     }
 
+    /**
+     * Строки не новее последней сохраненной отбрасываются до дописывания и учитываются в манифесте как повторные
+     * в последней партиции, на которую пришлось пересечение.
+     */
+    private int commitEntries(MarketSeries rows) {
+        Long latest = readLatestSavedEntry();
+        MarketSeries fresh = latest == null ? rows : rows.subRange(latest + interval, Long.MAX_VALUE);
+        int duplicates = rows.size() - fresh.size();
+        if (duplicates > 0) {
+            manifest.put(manifest.latest().withDuplicates(duplicates));
+        }
+        if (!fresh.isEmpty()) {
+            appendEntries(fresh);
+            writableFile.force();
+            writableRollups.force();
+        }
+        if (duplicates > 0 || !fresh.isEmpty()) {
+            manifest.save();
+        }
+        return fresh.size();
+    }
+
+    /**
+     * Строки страницы [fromTime, toTime). В странице не больше MAX_ROWS_LIMIT секунд, поэтому одного запроса достаточно:
+     * если в странице пропуск, биржа вернет и строки следующей страницы, они отбрасываются.
+     */
+    private MarketSeries fetchPage(long fromTime, long toTime, Semaphore permits) throws InterruptedException {
+        int limit = (int) Math.min(MAX_ROWS_LIMIT, (toTime - fromTime + interval - 1) / interval);
+        permits.acquire();
+        try {
+            MarketSeries result = apiService.getMarketDataPublicAPI(symbol, "1s", fromTime, limit,
+                    RequestScheduler.Priority.BULK, fromTime).getResponse();
+            return result.slice(0, result.ceilingIndex(toTime));
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Последняя сохраненная секунда берется из манифеста, без чтения данных.
+     */
     private Long readLatestSavedEntry() {
-        var lastYearEntrySet = readAllEntries(2025);
-        if (lastYearEntrySet.isEmpty()) {
-            return null;
+        verifyManifest();
+        MarketDataManifest.Partition latest = manifest.latest();
+        return latest == null ? null : latest.lastTime();
+    }
+
+    /**
+     * Сверяет манифест с заголовками файлов партиций.
+     * Если манифест есть, проверяются только партиции начиная с последней известной (обычно одна-две),
+     * иначе все годы, и манифест строится одним проходом по данным.
+     */
+    private void verifyManifest() {
+        if (manifestVerified) {
+            return;
         }
-        return lastYearEntrySet.lastKey();
+        MarketDataManifest.Partition latest = manifest.latest();
+        int fromYear = latest == null ? yearOf(START_TIME) : latest.year();
+        boolean changed = false;
+        for (int year = fromYear; year <= yearOf(Instant.now().toEpochMilli()); year++) {
+            try (MarketDataPartition file = openPartition(year)) {
+                if (manifest.verify(year, file)) {
+                    log.info(String.format("%s %d: manifest entry rebuilt from data", symbol, year), Instant.now().toEpochMilli());
+                    changed = true;
+                }
+            }
+        }
+        if (changed) {
+            manifest.save();
+        }
+        manifestVerified = true;
     }
 
-    private void appendEntries(TreeMap<Long, MarketEntry> data) {
-        ZonedDateTime zonedDateTime = Instant.ofEpochMilli(data.firstKey()).atZone(ZoneId.of("UTC"));
-        int year = zonedDateTime.getYear();
-        Path path = Paths.get(filePath + "_" + year + ".txt");
+    /**
+     * Повторно запрашивает только пропущенные диапазоны из манифеста и вставляет полученные строки в партиции.
+     * Пропуски, по которым биржа ничего не вернула, помечаются подтвержденными и больше не запрашиваются.
+     */
+    public void repairGaps() {
+        verifyManifest();
+        closeWritableFile();
+        TreeMap<Integer, MarketSeriesBuilder> fetchedByYear = new TreeMap<>();
+        for (MarketDataManifest.Partition partition : manifest.partitions()) {
+            List<MarketDataManifest.Gap> gaps = new ArrayList<>();
+            for (MarketDataManifest.Gap gap : partition.gaps()) {
+                if (gap.confirmed()) {
+                    gaps.add(gap);
+                    continue;
+                }
+                MarketSeries fetched = fetchRange(gap.fromTime(), gap.toTime());
+                log.info(String.format("%s gap %s - %s: fetched %d of %d missing seconds", symbol,
+                        Instant.ofEpochMilli(gap.fromTime()), Instant.ofEpochMilli(gap.toTime()), fetched.size(), gap.size(interval)), gap.fromTime());
+                if (fetched.isEmpty()) {
+                    gaps.add(new MarketDataManifest.Gap(gap.fromTime(), gap.toTime(), true));
+                    continue;
+                }
+                gaps.add(gap);
+                for (int i = 0; i < fetched.size(); i++) {
+                    fetchedByYear.computeIfAbsent(yearOf(fetched.time(i)), year -> new MarketSeriesBuilder())
+                            .add(fetched.time(i), fetched.high(i), fetched.low(i), fetched.volume(i));
+                }
+            }
+            manifest.put(new MarketDataManifest.Partition(partition.year(), partition.firstTime(), partition.lastTime(),
+                    partition.rows(), partition.duplicates(), List.copyOf(gaps)));
+        }
+        for (var entry : fetchedByYear.entrySet()) {
+            int year = entry.getKey();
+            mergePartition(year, entry.getValue().build());
+            try (MarketDataPartition file = openPartition(year)) {
+                manifest.put(manifest.scan(year, file, manifest.get(year)));
+            }
+        }
+        manifest.save();
+    }
 
-        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
-            data.forEach((time, entry) -> {
-                try {
-                    writer.write(formatEntry(time, entry.high(), entry.low(), entry.volume()));
-                    writer.newLine();
-                } catch (IOException e) {
-                    throw new RuntimeException("Failed to write line");
+    private MarketSeries fetchRange(long fromTime, long toTime) {
+        MarketSeriesBuilder builder = new MarketSeriesBuilder();
+        long start = fromTime;
+        while (start < toTime) {
+            int limit = (int) Math.max(1, Math.min(MAX_ROWS_LIMIT, (toTime - start) / interval));
+            MarketSeries result = apiService.getMarketDataPublicAPI(symbol, "1s", start, limit,
+                    RequestScheduler.Priority.BULK, start).getResponse();
+            builder.addAll(result.slice(0, result.ceilingIndex(toTime)));
+            if (result.isEmpty() || result.lastTime() + interval >= toTime) {
+                break;
+            }
+            start = result.lastTime() + interval;
+        }
+        return builder.build();
+    }
+
+    /**
+     * Партиция переписывается слиянием существующих строк и полученных при восстановлении пропусков.
+     * Архив завершенного года распаковывается в бинарный файл, повторно он сжимается при следующей архивации.
+     * Агрегаты года удаляются и строятся заново при следующем чтении.
+     */
+    private void mergePartition(int year, MarketSeries fetched) {
+        Path binaryPath = partitionPath(year, MarketDataFile.EXTENSION);
+        Path archivePath = partitionPath(year, CompressedMarketDataFile.EXTENSION);
+        try (MarketDataPartition existing = openPartition(year)) {
+            writeBinaryPartition(year, binaryPath, file -> {
+                int next = 0;
+                for (int from = 0; existing != null && from < existing.size(); from += STREAMING_CHUNK_SIZE) {
+                    ArrayMarketSeries chunk = existing.read(from, Math.min(existing.size(), from + STREAMING_CHUNK_SIZE));
+                    MarketSeriesBuilder merged = new MarketSeriesBuilder(chunk.size());
+                    for (int i = 0; i < chunk.size(); i++) {
+                        while (next < fetched.size() && fetched.time(next) <= chunk.time(i)) {
+                            if (fetched.time(next) < chunk.time(i)) {
+                                merged.add(fetched.time(next), fetched.high(next), fetched.low(next), fetched.volume(next));
+                            }
+                            next++;
+                        }
+                        merged.add(chunk.time(i), chunk.high(i), chunk.low(i), chunk.volume(i));
+                    }
+                    file.append(merged.build());
                 }
+                file.append(fetched.slice(next, fetched.size()));
             });
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to write lines");
+        }
+        try {
+            if (Files.exists(archivePath)) {
+                Files.delete(MarketDataFile.indexPath(archivePath));
+                Files.delete(archivePath);
+            }
+            for (Resolution resolution : Resolution.values()) {
+                Files.deleteIfExists(MarketDataFile.indexPath(rollupPath(resolution, year)));
+                Files.deleteIfExists(rollupPath(resolution, year));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Пачка может пересекать границу года, поэтому строки раскладываются по партициям своего года.
+     * Записанные секунды сразу добавляются в агрегаты {@link Resolution}.
+     * После записи данных запись манифеста обновляется в памяти: новые пропуски и повторные секунды учитываются без чтения файла.
+     * Манифест сохраняется в {@link #commit} после фиксации партиций.
+     */
+    private void appendEntries(MarketSeries data) {
+        int size = data.size();
+        long[] time = new long[size];
+        double[] high = new double[size];
+        double[] low = new double[size];
+        double[] volume = new double[size];
+        for (int i = 0; i < size; i++) {
+            time[i] = data.time(i);
+            high[i] = data.high(i);
+            low[i] = data.low(i);
+            volume[i] = data.volume(i);
+        }
+
+        int from = 0;
+        while (from < size) {
+            int year = yearOf(time[from]);
+            long nextYearStart = Year.of(year + 1).atDay(1).atStartOfDay(ZoneId.of("UTC")).toInstant().toEpochMilli();
+            int to = from;
+            while (to < size && time[to] < nextYearStart) {
+                to++;
+            }
+            MarketDataManifest.Partition partition = manifest.get(year)
+                    .appended(time, from, to, interval, manifest.lastTimeBefore(year));
+            int written = getWritableFile(year).append(time, high, low, volume, from, to);
+            writableRollups.append(time, high, low, volume, to - written, to);
+            manifest.put(partition);
+            from = to;
         }
     }
 
-    public TreeMap<Long, MarketEntry> readAllEntries(int year) {
-        TreeMap<Long, MarketEntry> resultMap = new TreeMap<>();
+    public MarketSeries readAllEntries(int year) {
+        try (MarketDataPartition file = openPartition(year)) {
+            if (file == null) {
+                return ArrayMarketSeries.EMPTY;
+            }
+            return file.readAll();
+        }
+    }
 
-        Path path = Paths.get(filePath + "_" + year + ".txt");
-        try (Stream<String> lines = Files.lines(path)) {
-            lines.forEach(line -> {
-                Map.Entry<Long, MarketEntry> parsedEntry = parseEntry(line);
-                if (parsedEntry != null) {
-                    resultMap.put(parsedEntry.getKey(), parsedEntry.getValue());
+    /**
+     * Загружает в память строки [fromTime, toTime) из всех партиций, которые пересекает диапазон.
+     * Начало диапазона ищется по индексу блоков, поэтому короткое окно (например 40 минут для графика) стоит чтения одного-двух блоков.
+     */
+    public MarketSeries readEntries(long fromTime, long toTime) {
+        MarketSeriesBuilder builder = new MarketSeriesBuilder();
+        for (int year = yearOf(fromTime); year <= yearOf(toTime - 1); year++) {
+            try (MarketDataPartition file = openPartition(year)) {
+                if (file != null) {
+                    builder.addAll(file.read(fromTime, toTime));
                 }
-            });
-        } catch (NoSuchFileException e) {
-            return resultMap;
-        } catch (Exception e) {
+            }
+        }
+        return builder.build();
+    }
+
+    @Override
+    public MarketSeries read(long fromTime, long toTime) {
+        return readEntries(fromTime, toTime);
+    }
+
+    /**
+     * Агрегированные строки [fromTime, toTime) в разрешении resolution (время строки - начало интервала)
+     */
+    public MarketSeries readRollup(Resolution resolution, long fromTime, long toTime) {
+        MarketSeriesBuilder builder = new MarketSeriesBuilder();
+        for (int year = yearOf(fromTime); year <= yearOf(toTime - 1); year++) {
+            try (MarketDataFile file = openRollupPartition(resolution, year)) {
+                if (file != null) {
+                    builder.addAll(file.read(fromTime, toTime));
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    public MarketDataReader rollupReader(Resolution resolution) {
+        return (fromTime, toTime) -> readRollup(resolution, fromTime, toTime);
+    }
+
+    /**
+     * Открывает агрегат года на чтение. Отсутствующий или отставший от ежесекундных данных агрегат
+     * (например, для данных, загруженных до появления агрегатов) достраивается.
+     * @return null если данных за год нет
+     */
+    public MarketDataFile openRollupPartition(Resolution resolution, int year) {
+        if (year == writableYear && writableFile != null) {
+            writableRollups.force();
+            return MarketDataFile.openReadOnly(rollupPath(resolution, year));
+        }
+        try (MarketDataPartition seconds = openPartition(year)) {
+            if (seconds == null || seconds.isEmpty()) {
+                return null;
+            }
+            Path path = rollupPath(resolution, year);
+            if (Files.exists(path)) {
+                MarketDataFile file = MarketDataFile.openReadOnly(path);
+                if (!file.isEmpty() && file.lastTime() == resolution.bucketOf(seconds.lastTime())) {
+                    return file;
+                }
+                file.close();
+            }
+            log.info(String.format("building %s %d rollups", symbol, year), seconds.lastTime());
+            try (MarketDataRollups rollups = openRollups(year)) {
+                rollups.reconcile(seconds);
+                rollups.force();
+            }
+            return MarketDataFile.openReadOnly(path);
+        }
+    }
+
+    /**
+     * Потоковое чтение строк [fromTime, toTime) блоками, без загрузки партиций в память.
+     * Диапазон может охватывать несколько лет: следующая партиция открывается в фоне, пока проигрывается текущая.
+     * Файлы партиций находятся (и при необходимости конвертируются) здесь, на вызывающем потоке,
+     * фоновому потоку передаются только готовые пути, поэтому он не обращается к состоянию загрузчика.
+     */
+    public MarketDataCursor openCursor(long fromTime, long toTime) {
+        List<Supplier<MarketDataCursor>> partitions = new ArrayList<>();
+        for (int year = yearOf(fromTime); year <= yearOf(toTime - 1); year++) {
+            Path path = partitionFile(year);
+            if (path != null) {
+                partitions.add(() -> new StreamingMarketDataCursor(openPartitionFile(path), fromTime, toTime, STREAMING_CHUNK_SIZE));
+            }
+        }
+        return new PartitionedMarketDataCursor(partitions, fromTime, toTime);
+    }
+
+    /**
+     * Открывает партицию года на чтение: бинарную, а для завершенных лет - сжатый архив.
+     * Если есть только текстовый файл старого формата, он один раз конвертируется в бинарный.
+     * @return null если данных за год нет
+     */
+    public MarketDataPartition openPartition(int year) {
+        Path path = partitionFile(year);
+        return path == null ? null : openPartitionFile(path);
+    }
+
+    private static MarketDataPartition openPartitionFile(Path path) {
+        if (path.getFileName().toString().endsWith(CompressedMarketDataFile.EXTENSION)) {
+            return CompressedMarketDataFile.open(path);
+        }
+        return MarketDataFile.openReadOnly(path);
+    }
+
+    /**
+     * Отображает строки [fromTime, toTime) всех партиций диапазона в память без копирования в heap.
+     * Отображения общие для всех загрузчиков в JVM, ряд нужно закрыть после использования.
+     */
+    public MappedMarketSeries mapEntries(long fromTime, long toTime) {
+        List<Path> paths = new ArrayList<>();
+        for (int year = yearOf(fromTime); year <= yearOf(toTime - 1); year++) {
+            Path path = partitionFile(year);
+            if (path != null) {
+                paths.add(path);
+            }
+        }
+        return MappedMarketSeries.open(paths, fromTime, toTime);
+    }
+
+    /**
+     * Файл партиции года для чтения: бинарный или сжатый архив, текстовый файл старого формата сначала конвертируется.
+     * @return null если данных за год нет
+     */
+    private Path partitionFile(int year) {
+        if (year == writableYear && writableFile != null) {
+            writableFile.force();
+        }
+        Path binaryPath = partitionPath(year, MarketDataFile.EXTENSION);
+        if (Files.exists(binaryPath)) {
+            return binaryPath;
+        }
+        Path archivePath = partitionPath(year, CompressedMarketDataFile.EXTENSION);
+        if (Files.exists(archivePath)) {
+            return archivePath;
+        }
+        Path textPath = partitionPath(year, ".txt");
+        if (!Files.exists(textPath)) {
+            return null;
+        }
+        convertTextPartition(year, textPath, binaryPath);
+        return binaryPath;
+    }
+
+    /**
+     * Сжимает бинарные партиции завершенных лет в архив (примерно в 5-6 раз меньше бинарного файла и на порядок меньше текстового)
+     * и удаляет бинарный файл. Текущий год остается бинарным, так как в него дописываются новые данные.
+     */
+    public void archiveCompletedPartitions() {
+        int currentYear = yearOf(Instant.now().toEpochMilli());
+        for (int year = yearOf(START_TIME); year < currentYear; year++) {
+            if (Files.exists(partitionPath(year, CompressedMarketDataFile.EXTENSION))) {
+                continue;
+            }
+            try (MarketDataPartition partition = openPartition(year)) {
+                if (partition == null || partition.isEmpty()) {
+                    continue;
+                }
+            }
+            archivePartition(year);
+        }
+    }
+
+    private void archivePartition(int year) {
+        Path binaryPath = partitionPath(year, MarketDataFile.EXTENSION);
+        Path archivePath = partitionPath(year, CompressedMarketDataFile.EXTENSION);
+        if (year == writableYear) {
+            closeWritableFile();
+        }
+        int rows;
+        long lastTime;
+        try (MarketDataFile file = MarketDataFile.openReadOnly(binaryPath)) {
+            rows = file.size();
+            lastTime = file.isEmpty() ? Instant.now().toEpochMilli() : file.lastTime();
+            CompressedMarketDataFile.write(file, archivePath);
+        }
+        try {
+            long archiveSize = Files.size(archivePath);
+            Files.delete(MarketDataFile.indexPath(binaryPath));
+            Files.delete(binaryPath);
+            log.info(String.format("archived %s: %d rows, %.1f MB, %.2f bytes per row", binaryPath.getFileName(),
+                    rows, archiveSize / 1e6, (double) archiveSize / rows), lastTime);
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        return resultMap;
     }
 
-    private String formatEntry(Long timestamp, double high, double low, double volume) {
-        return String.format("%d,%.6f,%.6f,%.6f", timestamp, high, low, volume);
+    /**
+     * Текстовый файл разбирается параллельно, конвертация пишется во временный файл и атомарно переименовывается,
+     * чтобы прерванная конвертация не оставила половину года.
+     */
+    private void convertTextPartition(int year, Path textPath, Path binaryPath) {
+        log.info(String.format("converting %s to binary format", textPath.getFileName()), Instant.now().toEpochMilli());
+        List<ArrayMarketSeries> chunks = TextMarketDataReader.of(textPath, TextMarketDataReader.Layout.MARKET_DATA).readChunks();
+        writeBinaryPartition(year, binaryPath, file -> chunks.forEach(file::append));
     }
 
-    private Map.Entry<Long, MarketEntry> parseEntry(String line) {
+    /**
+     * Архив распаковывается обратно в бинарный файл, если в завершенный год нужно дописать данные
+     */
+    private void restoreArchivedPartition(int year, Path archivePath, Path binaryPath) {
+        log.info(String.format("restoring %s to binary format", archivePath.getFileName()), Instant.now().toEpochMilli());
+        try (CompressedMarketDataFile archive = CompressedMarketDataFile.open(archivePath)) {
+            writeBinaryPartition(year, binaryPath, file -> {
+                for (int from = 0; from < archive.size(); from += STREAMING_CHUNK_SIZE) {
+                    file.append(archive.read(from, Math.min(archive.size(), from + STREAMING_CHUNK_SIZE)));
+                }
+            });
+        }
         try {
-            String[] parts = line.split(",");
-            if (parts.length != 4) {
-                return null;
+            Files.delete(MarketDataFile.indexPath(archivePath));
+            Files.delete(archivePath);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeBinaryPartition(int year, Path binaryPath, Consumer<MarketDataFile> content) {
+        Path tmpPath = partitionPath(year, MarketDataFile.EXTENSION + ".tmp");
+        try {
+            Files.deleteIfExists(tmpPath);
+            try (MarketDataFile file = MarketDataFile.openWritable(tmpPath, yearCapacity(year))) {
+                content.accept(file);
+                file.force();
+            }
+            Files.move(MarketDataFile.indexPath(tmpPath), MarketDataFile.indexPath(binaryPath), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmpPath, binaryPath, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private MarketDataFile getWritableFile(int year) {
+        if (year != writableYear) {
+            closeWritableFile();
+            Path binaryPath = partitionPath(year, MarketDataFile.EXTENSION);
+            if (!Files.exists(binaryPath) && Files.exists(partitionPath(year, CompressedMarketDataFile.EXTENSION))) {
+                restoreArchivedPartition(year, partitionPath(year, CompressedMarketDataFile.EXTENSION), binaryPath);
+            } else if (!Files.exists(binaryPath) && Files.exists(partitionPath(year, ".txt"))) {
+                convertTextPartition(year, partitionPath(year, ".txt"), binaryPath);
             }
-            Long timestamp = Long.parseLong(parts[0]);
-            double high = Double.parseDouble(parts[1]);
-            double low = Double.parseDouble(parts[2]);
-            double volume = Double.parseDouble(parts[3]);
-            return new AbstractMap.SimpleEntry<>(timestamp, new MarketEntry(high, low, volume));
-        } catch (NumberFormatException e) {
-            throw new RuntimeException("Failed to parse line");
+            writableFile = MarketDataFile.openWritable(binaryPath, yearCapacity(year));
+            writableRollups = openRollups(year);
+            writableRollups.reconcile(writableFile);
+            writableYear = year;
         }
+        return writableFile;
+    }
+
+    private void closeWritableFile() {
+        if (writableFile != null) {
+            writableFile.force();
+            writableFile.close();
+            writableRollups.force();
+            writableRollups.close();
+            writableFile = null;
+            writableRollups = null;
+            writableYear = -1;
+        }
+    }
+
+    private Path partitionPath(int year, String extension) {
+        return Paths.get(filePath + "_" + year + extension);
+    }
+
+    private Path rollupPath(Resolution resolution, int year) {
+        return Paths.get(filePath + "_" + resolution.suffix() + "_" + year + MarketDataFile.EXTENSION);
+    }
+
+    private MarketDataRollups openRollups(int year) {
+        return MarketDataRollups.openWritable(resolution -> rollupPath(resolution, year), yearCapacity(year));
+    }
+
+    /**
+     * Максимальное количество ежесекундных строк в году
+     */
+    private static long yearCapacity(int year) {
+        return Year.of(year).length() * 86_400L;
+    }
+
+    private static int yearOf(long mills) {
+        ZonedDateTime zonedDateTime = Instant.ofEpochMilli(mills).atZone(ZoneId.of("UTC"));
+        return zonedDateTime.getYear();
     }
 }
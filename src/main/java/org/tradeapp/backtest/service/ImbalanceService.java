@@ -4,11 +4,15 @@ import org.tradeapp.backtest.domain.Imbalance;
 import org.tradeapp.backtest.domain.ImbalanceState;
 import org.tradeapp.utils.Log;
 import org.tradeapp.backtest.domain.MarketEntry;
+import org.tradeapp.backtest.domain.MarketSeries;
+import org.tradeapp.backtest.domain.MarketWindow;
+import org.tradeapp.backtest.domain.MonotonicDeque;
+import org.tradeapp.backtest.storage.MarketDataReader;
+import org.tradeapp.backtest.storage.TradeJournalWriter;
 import org.tradeapp.ui.utils.TradingVueJsonUpdater;
 import org.tradeapp.ui.utils.TimeFormatter;
 
 import java.util.*;
-import java.util.function.Predicate;
 
 import static org.tradeapp.backtest.constants.Settings.*;
 
@@ -19,7 +23,7 @@ public class ImbalanceService implements VolatilityListener {
 
     /**
      * Минимальное изменение цены и минимальная скорость изменения.
-     * Пересчитывается каждый день на основе волатильности и средней цены.
+     * Пересчитываются после каждой закрытой свечи 15m по скользящим волатильности и средней цене.
      * Изменение цены в $, скорость изменения в $/миллисекунду
      */
     private double priceChangeThreshold, speedThreshold;
@@ -27,16 +31,30 @@ public class ImbalanceService implements VolatilityListener {
 
     private ImbalanceState currentState = ImbalanceState.WAIT;
     private Imbalance currentImbalance = null;
+    /**
+     * Минимальный low и максимальный high ежесекундных данных с конечной точки текущего имбаланса до предыдущего тика.
+     * Сбрасываются, когда конечная точка сдвигается, и обновляются в конце каждого тика, пока имбаланс отслеживается.
+     */
+    private double lowSinceEndPoint, highSinceEndPoint;
 
 
-    private final TreeMap<Long, MarketEntry> seconds = new TreeMap<>();
-    private final TreeMap<Long, MarketEntry> largeData = new TreeMap<>();
+    /**
+     * Ежесекундные данные за DATA_LIVE_TIME и агрегаты по LARGE_DATA_ENTRY_SIZE за LARGE_DATA_LIVE_TIME
+     */
+    private final MarketWindow seconds = new MarketWindow((int) (DATA_LIVE_TIME / 1000L) + 2);
+    private final MarketWindow largeData = new MarketWindow((int) (LARGE_DATA_LIVE_TIME / LARGE_DATA_ENTRY_SIZE) + 2);
+    /**
+     * Кандидаты в начало имбаланса среди ежесекундных данных без текущей строки: минимумы для UP и максимумы для DOWN
+     */
+    private final MonotonicDeque lowCandidates = new MonotonicDeque((int) (DATA_LIVE_TIME / 1000L) + 2, false);
+    private final MonotonicDeque highCandidates = new MonotonicDeque((int) (DATA_LIVE_TIME / 1000L) + 2, true);
     private double currentMinuteHigh = 0.;
     private double currentMinuteLow = Double.MAX_VALUE;
     private double currentMinuteVolume = 0;
     private long lastMinuteTimestamp = -1L;
 
     private final LinkedList<Imbalance> imbalances = new LinkedList<>();
+    private boolean verifyDetection = VERIFY_IMBALANCE_DETECTION;
 
     public ImbalanceService() {  }
 
@@ -48,6 +66,10 @@ public class ImbalanceService implements VolatilityListener {
             case POTENTIAL_END_POINT -> evaluatePossibleEndPoint(currentTime, currentEntry);
             case COMPLETED -> saveCompletedImbalanceAndResetState();
         }
+        if (currentImbalance != null) {
+            lowSinceEndPoint = Math.min(lowSinceEndPoint, currentEntry.low());
+            highSinceEndPoint = Math.max(highSinceEndPoint, currentEntry.high());
+        }
     }
 
     /**
@@ -58,74 +80,164 @@ public class ImbalanceService implements VolatilityListener {
      * Потом из них находим с самой большой скоростью изменения цены.
      */
     private void detectImbalance(long currentTime, MarketEntry currentEntry) {
-        NavigableMap<Long, MarketEntry> descendingData = seconds.descendingMap();
-        Imbalance imbalance = null;
-        for (long previousTime : descendingData.keySet()) {
+        Imbalance imbalance = findLatestImbalance(currentTime, currentEntry);
+        if (verifyDetection) {
+            Imbalance expected = findLatestImbalanceLinear(currentTime, currentEntry);
+            if (!isSameImbalance(expected, imbalance)) {
+                throw log.throwError(String.format("imbalance detection mismatch: expected %s, found %s", expected, imbalance), currentTime);
+            }
+        }
+        if (imbalance == null) {
+            return;
+        }
+        findImbalanceStart(currentTime, currentEntry, imbalance);
+    }
+
+    /**
+     * Тот же результат, что и {@link #findLatestImbalanceLinear}, но перебираются только кандидаты в экстремумы.
+     * <p>
+     * Если более новая строка имеет такой же или более низкий low, то она удовлетворяет условиям UP не хуже
+     * (изменение цены не меньше, время не больше), поэтому самая новая подходящая строка для UP всегда среди {@link #lowCandidates}.
+     * Low кандидатов растет от старых к новым, поэтому условие на изменение цены выполняется для префикса очереди,
+     * его граница находится бинарным поиском, и дальше проверяется только скорость.
+     * <p>
+     * Для DOWN так же по {@link #highCandidates}, кроме одного случая: строка, для которой выполнено условие изменения цены UP,
+     * не может быть DOWN (DOWN проверяется только если не выполнено условие UP). Если такая строка попала в кандидаты DOWN,
+     * вытесненные ею строки проверяются полным проходом. Это возможно только для свечи размером больше двух минимальных изменений цены.
+     */
+    private Imbalance findLatestImbalance(long currentTime, MarketEntry currentEntry) {
+        double currentHigh = currentEntry.high();
+        double currentLow = currentEntry.low();
+
+        int upIndex = -1;
+        int from = 0, to = lowCandidates.size();
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (currentHigh - lowCandidates.value(middle) > priceChangeThreshold) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        for (int i = from - 1; i >= 0; i--) {
+            int index = seconds.indexOf(lowCandidates.sequence(i));
+            if (isImbalanceSpeed(currentHigh - seconds.low(index), currentTime - seconds.time(index))) {
+                upIndex = index;
+                break;
+            }
+        }
+
+        int downIndex = -1;
+        from = 0;
+        to = highCandidates.size();
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (highCandidates.value(middle) - currentLow > priceChangeThreshold) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        for (int i = from - 1; i >= 0; i--) {
+            int index = seconds.indexOf(highCandidates.sequence(i));
+            if (index <= upIndex) {
+                break;
+            }
+            if (currentHigh - seconds.low(index) > priceChangeThreshold) {
+                for (int j = index - 1; j > upIndex; j--) {
+                    if (!(currentHigh - seconds.low(j) > priceChangeThreshold) &&
+                            seconds.high(j) - currentLow > priceChangeThreshold &&
+                            isImbalanceSpeed(seconds.high(j) - currentLow, currentTime - seconds.time(j))) {
+                        downIndex = j;
+                        break;
+                    }
+                }
+                break;
+            }
+            if (isImbalanceSpeed(seconds.high(index) - currentLow, currentTime - seconds.time(index))) {
+                downIndex = index;
+                break;
+            }
+        }
+
+        if (downIndex > upIndex) {
+            return new Imbalance(seconds.time(downIndex), seconds.high(downIndex), currentTime, currentLow, Imbalance.Type.DOWN);
+        }
+        if (upIndex >= 0) {
+            return new Imbalance(seconds.time(upIndex), seconds.low(upIndex), currentTime, currentHigh, Imbalance.Type.UP);
+        }
+        return null;
+    }
+
+    /**
+     * Полный проход по секундным данным со свежих назад до первого имбаланса. Используется для сверки с {@link #findLatestImbalance}.
+     */
+    private Imbalance findLatestImbalanceLinear(long currentTime, MarketEntry currentEntry) {
+        for (int i = seconds.size() - 1; i >= 0; i--) {
+            long previousTime = seconds.time(i);
             if (previousTime == currentTime) {
                 continue;
             }
-            MarketEntry previousEntry = descendingData.get(previousTime);
-
-            if (currentEntry.high() - previousEntry.low() > priceChangeThreshold) {
-                double priceChange = currentEntry.high() - previousEntry.low();
-                double priceChangeSpeed = priceChange / (double) (currentTime - previousTime);
-                if (priceChangeSpeed > speedThreshold * priceChangeThreshold / priceChange) {
-                    imbalance = new Imbalance(previousTime, previousEntry.low(), currentTime, currentEntry.high(), Imbalance.Type.UP);
-                    break;
-                }
-            } else if (previousEntry.high() - currentEntry.low() > priceChangeThreshold) {
-                double priceChange = previousEntry.high() - currentEntry.low();
-                double priceChangeSpeed = priceChange / (double) (currentTime - previousTime);
+            double previousHigh = seconds.high(i);
+            double previousLow = seconds.low(i);
 
-                if (priceChangeSpeed > speedThreshold * priceChangeThreshold / priceChange) {
-                    imbalance = new Imbalance(previousTime, previousEntry.high(), currentTime, currentEntry.low(), Imbalance.Type.DOWN);
-                    break;
+            if (currentEntry.high() - previousLow > priceChangeThreshold) {
+                if (isImbalanceSpeed(currentEntry.high() - previousLow, currentTime - previousTime)) {
+                    return new Imbalance(previousTime, previousLow, currentTime, currentEntry.high(), Imbalance.Type.UP);
+                }
+            } else if (previousHigh - currentEntry.low() > priceChangeThreshold) {
+                if (isImbalanceSpeed(previousHigh - currentEntry.low(), currentTime - previousTime)) {
+                    return new Imbalance(previousTime, previousHigh, currentTime, currentEntry.low(), Imbalance.Type.DOWN);
                 }
             }
         }
-        if (imbalance == null) {
-            return;
+        return null;
+    }
+
+    private static boolean isSameImbalance(Imbalance expected, Imbalance actual) {
+        if (expected == null || actual == null) {
+            return expected == actual;
         }
-        findImbalanceStart(currentTime, currentEntry, imbalance);
+        return expected.getType() == actual.getType() &&
+                expected.getStartTime() == actual.getStartTime() && expected.getStartPrice() == actual.getStartPrice() &&
+                expected.getEndTime() == actual.getEndTime() && expected.getEndPrice() == actual.getEndPrice();
+    }
+
+    private boolean isImbalanceSpeed(double priceChange, long duration) {
+        double priceChangeSpeed = priceChange / (double) duration;
+        return priceChangeSpeed > speedThreshold * priceChangeThreshold / priceChange;
     }
 
     private void findImbalanceStart(long currentTime, MarketEntry currentEntry, final Imbalance imbalance) {
         List<Imbalance> imbalances = new ArrayList<>();
+        int startIndex = seconds.ceilingIndex(imbalance.getStartTime());
         switch (imbalance.getType()) {
             case UP -> {
-                long minEntryTime = seconds.subMap(seconds.firstKey(), true, imbalance.getStartTime(), true)
-                        .entrySet()
-                        .stream()
-                        .min(Comparator.comparing(entry -> entry.getValue().low())).orElseThrow().getKey();
-                NavigableMap<Long, MarketEntry> descendingSubData = seconds.descendingMap()
-                        .subMap(imbalance.getStartTime(), false, minEntryTime, true);
-
-                for (long previousTime : descendingSubData.keySet()) {
-                    MarketEntry previousEntry = descendingSubData.get(previousTime);
-                    if (currentEntry.high() - previousEntry.low() > priceChangeThreshold) {
-                        double priceChange = currentEntry.high() - previousEntry.low();
+                int minEntryIndex = seconds.minLowIndex(0, startIndex + 1);
+
+                for (int i = startIndex - 1; i >= minEntryIndex; i--) {
+                    long previousTime = seconds.time(i);
+                    double previousLow = seconds.low(i);
+                    if (currentEntry.high() - previousLow > priceChangeThreshold) {
+                        double priceChange = currentEntry.high() - previousLow;
                         double priceChangeSpeed = priceChange / (double) (currentTime - previousTime);
                         if (priceChangeSpeed > speedThreshold * priceChangeThreshold / priceChange) {
-                            imbalances.add(new Imbalance(previousTime, previousEntry.low(), currentTime, currentEntry.high(), Imbalance.Type.UP));
+                            imbalances.add(new Imbalance(previousTime, previousLow, currentTime, currentEntry.high(), Imbalance.Type.UP));
                         }
                     }
                 }
             }
             case DOWN -> {
-                long maxEntryTime = seconds.subMap(seconds.firstKey(), true, imbalance.getStartTime(), true)
-                        .entrySet()
-                        .stream()
-                        .max(Comparator.comparing(entry -> entry.getValue().high())).orElseThrow().getKey();
-                NavigableMap<Long, MarketEntry> descendingSubData = seconds.descendingMap()
-                        .subMap(imbalance.getStartTime(), false, maxEntryTime, true);
-
-                for (long previousTime : descendingSubData.keySet()) {
-                    MarketEntry previousEntry = descendingSubData.get(previousTime);
-                    if (previousEntry.high() - currentEntry.low() > priceChangeThreshold) {
-                        double priceChange = previousEntry.high() - currentEntry.low();
+                int maxEntryIndex = seconds.maxHighIndex(0, startIndex + 1);
+
+                for (int i = startIndex - 1; i >= maxEntryIndex; i--) {
+                    long previousTime = seconds.time(i);
+                    double previousHigh = seconds.high(i);
+                    if (previousHigh - currentEntry.low() > priceChangeThreshold) {
+                        double priceChange = previousHigh - currentEntry.low();
                         double priceChangeSpeed = priceChange / (double) (currentTime - previousTime);
                         if (priceChangeSpeed > speedThreshold * priceChangeThreshold / priceChange) {
-                            imbalances.add(new Imbalance(previousTime, previousEntry.high(), currentTime, currentEntry.low(), Imbalance.Type.DOWN));
+                            imbalances.add(new Imbalance(previousTime, previousHigh, currentTime, currentEntry.low(), Imbalance.Type.DOWN));
                         }
                     }
                 }
@@ -141,6 +253,7 @@ public class ImbalanceService implements VolatilityListener {
                 .orElse(null);
 
         if (currentImbalance != null) {
+            resetEndPointRange();
             currentState = ImbalanceState.PROGRESS;
             log.debug(currentImbalance.getType() + " started: " + currentImbalance, currentTime);
         }
@@ -154,22 +267,30 @@ public class ImbalanceService implements VolatilityListener {
      * @return true если валидный имбаланс
      */
     private boolean isValid(Imbalance imbalance) {
-        boolean localExtremaBetweenStartEndPricesExists = seconds.subMap(imbalance.getStartTime(), imbalance.getEndTime()).entrySet().stream()
-                .anyMatch(entry -> switch (imbalance.getType()) {
-                    case UP -> entry.getValue().high() > imbalance.getEndPrice();
-                    case DOWN -> entry.getValue().low() < imbalance.getEndPrice();
-                });
-        boolean contrImbalanceExists = largeData.entrySet().stream()
-                .filter(entry -> entry.getKey() <= imbalance.getStartTime() &&
-                        entry.getKey() >= imbalance.getStartTime() - TIME_CHECK_CONTR_IMBALANCE)
-                .anyMatch(entry -> switch (imbalance.getType()) {
-                    case UP -> entry.getValue().high() > imbalance.getEndPrice() - imbalance.size() * 0.25;
-                    case DOWN -> entry.getValue().low() < imbalance.getEndPrice() + imbalance.size() * 0.25;
-                });
-        boolean minDurationFit = imbalance.duration() > MIN_IMBALANCE_TIME_DURATION;
-        boolean highSizePointsExists = seconds.get(imbalance.getStartTime()).size() * 2 < imbalance.size() &&
-                seconds.get(imbalance.getEndTime()).size() * 2 < imbalance.size();
-        return minDurationFit && highSizePointsExists && !localExtremaBetweenStartEndPricesExists && !contrImbalanceExists;
+        if (imbalance.duration() <= MIN_IMBALANCE_TIME_DURATION) {
+            return false;
+        }
+        int startIndex = seconds.ceilingIndex(imbalance.getStartTime());
+        int endIndex = seconds.ceilingIndex(imbalance.getEndTime());
+        boolean highSizePointsExists = (seconds.high(startIndex) - seconds.low(startIndex)) * 2 < imbalance.size() &&
+                (seconds.high(endIndex) - seconds.low(endIndex)) * 2 < imbalance.size();
+        if (!highSizePointsExists) {
+            return false;
+        }
+        boolean localExtremaBetweenStartEndPricesExists = switch (imbalance.getType()) {
+            case UP -> seconds.high(seconds.maxHighIndex(startIndex, endIndex)) > imbalance.getEndPrice();
+            case DOWN -> seconds.low(seconds.minLowIndex(startIndex, endIndex)) < imbalance.getEndPrice();
+        };
+        if (localExtremaBetweenStartEndPricesExists) {
+            return false;
+        }
+        int contrFrom = largeData.ceilingIndex(imbalance.getStartTime() - TIME_CHECK_CONTR_IMBALANCE);
+        int contrTo = largeData.ceilingIndex(imbalance.getStartTime() + 1);
+        boolean contrImbalanceExists = contrFrom < contrTo && switch (imbalance.getType()) {
+            case UP -> largeData.high(largeData.maxHighIndex(contrFrom, contrTo)) > imbalance.getEndPrice() - imbalance.size() * 0.25;
+            case DOWN -> largeData.low(largeData.minLowIndex(contrFrom, contrTo)) < imbalance.getEndPrice() + imbalance.size() * 0.25;
+        };
+        return !contrImbalanceExists;
     }
 
     private void trackImbalanceProgress(long currentTime, MarketEntry currentEntry) {
@@ -191,6 +312,7 @@ public class ImbalanceService implements VolatilityListener {
                 if (currentEntry.high() >= currentImbalance.getEndPrice()) {
                     currentImbalance.setEndPrice(currentEntry.high());
                     currentImbalance.setEndTime(currentTime);
+                    resetEndPointRange();
                     currentState = ImbalanceState.PROGRESS;
                     return true;
                 }
@@ -199,6 +321,7 @@ public class ImbalanceService implements VolatilityListener {
                 if (currentEntry.low() <= currentImbalance.getEndPrice()) {
                     currentImbalance.setEndPrice(currentEntry.low());
                     currentImbalance.setEndTime(currentTime);
+                    resetEndPointRange();
                     currentState = ImbalanceState.PROGRESS;
                     return true;
                 }
@@ -230,17 +353,20 @@ public class ImbalanceService implements VolatilityListener {
             return false;
         }
 
-        Predicate<MarketEntry> alreadyReturnedPriceCondition = switch (currentImbalance.getType()) {
-            case UP -> {
-                double averagePrice = currentImbalance.getEndPrice() - (currentImbalance.size() * RETURNED_PRICE_IMBALANCE_PARTITION);
-                yield (marketEntry -> marketEntry.low() < averagePrice);
-            }
-            case DOWN -> {
-                double averagePrice = currentImbalance.getEndPrice() + currentImbalance.size() * RETURNED_PRICE_IMBALANCE_PARTITION;
-                yield (marketEntry -> marketEntry.high() > averagePrice);
-            }
+        double lowSinceEnd = lowSinceEndPoint;
+        double highSinceEnd = highSinceEndPoint;
+        if (seconds.firstTime() > currentImbalance.getEndTime()) {
+            // конечная точка уже вышла из окна, проверяются только оставшиеся в окне данные
+            int from = seconds.ceilingIndex(currentImbalance.getEndTime());
+            int to = seconds.ceilingIndex(currentTime);
+            lowSinceEnd = from < to ? seconds.low(seconds.minLowIndex(from, to)) : Double.MAX_VALUE;
+            highSinceEnd = from < to ? seconds.high(seconds.maxHighIndex(from, to)) : -Double.MAX_VALUE;
+        }
+        boolean alreadyReturnedPrice = switch (currentImbalance.getType()) {
+            case UP -> lowSinceEnd < currentImbalance.getEndPrice() - (currentImbalance.size() * RETURNED_PRICE_IMBALANCE_PARTITION);
+            case DOWN -> highSinceEnd > currentImbalance.getEndPrice() + currentImbalance.size() * RETURNED_PRICE_IMBALANCE_PARTITION;
         };
-        if (seconds.subMap(currentImbalance.getEndTime(), currentTime).values().stream().anyMatch(alreadyReturnedPriceCondition)) {
+        if (alreadyReturnedPrice) {
             return false;
         }
 
@@ -249,6 +375,14 @@ public class ImbalanceService implements VolatilityListener {
         return true;
     }
 
+    /**
+     * Конечная точка сдвинулась на текущий тик, он войдет в диапазон в конце {@link #onTick}
+     */
+    private void resetEndPointRange() {
+        lowSinceEndPoint = Double.MAX_VALUE;
+        highSinceEndPoint = -Double.MAX_VALUE;
+    }
+
     private void evaluatePossibleEndPoint(long currentTime, MarketEntry currentEntry) {
         if (checkProgressCondition(currentTime, currentEntry)) {
             return;
@@ -257,9 +391,16 @@ public class ImbalanceService implements VolatilityListener {
     }
 
     private void updateData(long currentTime, MarketEntry currentEntry) {
-        seconds.put(currentTime, currentEntry);
-        if (currentTime - seconds.firstKey() > DATA_LIVE_TIME) {
-            seconds.pollFirstEntry();
+        if (!seconds.isEmpty()) {
+            int last = seconds.size() - 1;
+            lowCandidates.push(seconds.sequence(last), seconds.low(last));
+            highCandidates.push(seconds.sequence(last), seconds.high(last));
+        }
+        seconds.add(currentTime, currentEntry.high(), currentEntry.low(), currentEntry.volume());
+        if (currentTime - seconds.firstTime() > DATA_LIVE_TIME) {
+            seconds.removeFirst();
+            lowCandidates.evict(seconds.firstSequence());
+            highCandidates.evict(seconds.firstSequence());
         }
 
         double priceHigh = currentEntry.high();
@@ -277,14 +418,14 @@ public class ImbalanceService implements VolatilityListener {
             lastMinuteTimestamp = currentTime;
         }
         if (currentTime - lastMinuteTimestamp > LARGE_DATA_ENTRY_SIZE) {
-            largeData.put(currentTime, new MarketEntry(currentMinuteHigh, currentMinuteLow, currentMinuteVolume));
+            largeData.add(currentTime, currentMinuteHigh, currentMinuteLow, currentMinuteVolume);
             currentMinuteHigh = 0;
             currentMinuteLow = Double.MAX_VALUE;
             currentMinuteVolume = 0;
             lastMinuteTimestamp = currentTime;
         }
-        if (!largeData.isEmpty() && currentTime - largeData.firstKey() > LARGE_DATA_LIVE_TIME) {
-            largeData.pollFirstEntry();
+        if (!largeData.isEmpty() && currentTime - largeData.firstTime() > LARGE_DATA_LIVE_TIME) {
+            largeData.removeFirst();
         }
     }
 
@@ -305,6 +446,9 @@ public class ImbalanceService implements VolatilityListener {
 
     private void saveCompletedImbalanceAndResetState() {
         imbalances.add(currentImbalance);
+        if (journal != null) {
+            journal.imbalance(currentImbalance, true);
+        }
         resetImbalanceState();
     }
 
@@ -321,19 +465,32 @@ public class ImbalanceService implements VolatilityListener {
     private final TradingVueJsonUpdater tradingVueJsonUpdater = new TradingVueJsonUpdater("/home/dmitriy/Projects/trading-vue-js/data/data.json");
     private void updateUI(long currentTime) {
         long delay = 20 * 60L * 1000L;
-        TreeMap<Long, MarketEntry> marketData__ = new TreeMap<>(data.subMap(currentImbalance.getStartTime() - delay, currentTime + delay));
-        tradingVueJsonUpdater.updateMarketData(marketData__);
+        tradingVueJsonUpdater.updateMarketData(data.read(currentImbalance.getStartTime() - delay, currentTime + delay));
         tradingVueJsonUpdater.updateAnalysedData(List.of(currentImbalance), new ArrayList<>());
     }
 
-    private TreeMap<Long, MarketEntry> data;
+    private MarketDataReader data;
 
-    public void setData(TreeMap<Long, MarketEntry> data) {
+    public void setData(MarketDataReader data) {
         this.data = data;
     }
 
+    private TradeJournalWriter journal;
+
+    public void setJournal(TradeJournalWriter journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Сверять быстрый поиск имбаланса с полным проходом на каждом тике в состоянии WAIT,
+     * по умолчанию {@link org.tradeapp.backtest.constants.Settings#VERIFY_IMBALANCE_DETECTION}
+     */
+    public void setVerifyDetection(boolean verifyDetection) {
+        this.verifyDetection = verifyDetection;
+    }
+
     private void calc(long currentTime_) {
-        var marketData_ = data.subMap(currentImbalance.getStartTime(), currentTime_).entrySet().stream().toList();
+        MarketSeries marketData_ = data.read(currentImbalance.getStartTime(), currentTime_);
 
         log.debug(currentImbalance.toString(), currentTime_);
         log.debug(String.format("price %.2f$ || time %ds || speed = %.2f$/s",
@@ -365,7 +522,7 @@ public class ImbalanceService implements VolatilityListener {
         }
     }
 
-    private List<PossibleCompleteAnalysisDTO> getPossibleCompleteAnalysisDTOS(List<Map.Entry<Long, MarketEntry>> marketData_, int duration) {
+    private List<PossibleCompleteAnalysisDTO> getPossibleCompleteAnalysisDTOS(MarketSeries marketData_, int duration) {
         Imbalance currentTempImbalance = Imbalance.of(currentImbalance.getStartTime(),
                 currentImbalance.getStartPrice(),
                 currentImbalance.getStartTime(),
@@ -374,31 +531,33 @@ public class ImbalanceService implements VolatilityListener {
         );
         List<PossibleCompleteAnalysisDTO> possibleCompletePoints = new ArrayList<>();
 
-        for (Map.Entry<Long, MarketEntry> currentEntry : marketData_) {
+        for (int i = 0; i < marketData_.size(); i++) {
+            long currentTime = marketData_.time(i);
+            MarketEntry currentEntry = marketData_.entry(i);
             switch (currentTempImbalance.getType()) {
                 case UP -> {
-                    if (currentEntry.getValue().high() > currentTempImbalance.getEndPrice()) {
-                        currentTempImbalance.setEndPrice(currentEntry.getValue().high());
-                        currentTempImbalance.setEndTime(currentEntry.getKey());
+                    if (currentEntry.high() > currentTempImbalance.getEndPrice()) {
+                        currentTempImbalance.setEndPrice(currentEntry.high());
+                        currentTempImbalance.setEndTime(currentTime);
                     }
-                    if (currentEntry.getKey() - currentTempImbalance.getEndTime() == duration * 1000L &&
+                    if (currentTime - currentTempImbalance.getEndTime() == duration * 1000L &&
                             currentTempImbalance.getEndPrice() - currentTempImbalance.getStartPrice() > priceChangeThreshold) {
-                        double partition = Math.abs(currentTempImbalance.getEndPrice() - currentEntry.getValue().average()) / currentTempImbalance.size();
+                        double partition = Math.abs(currentTempImbalance.getEndPrice() - currentEntry.average()) / currentTempImbalance.size();
                         if (partition <= 0.16) {
-                            possibleCompletePoints.add(new PossibleCompleteAnalysisDTO(Imbalance.of(currentTempImbalance), currentEntry.getKey(), currentEntry.getValue(), partition));
+                            possibleCompletePoints.add(new PossibleCompleteAnalysisDTO(Imbalance.of(currentTempImbalance), currentTime, currentEntry, partition));
                         }
                     }
                 }
                 case DOWN -> {
-                    if (currentEntry.getValue().low() < currentTempImbalance.getEndPrice()) {
-                        currentTempImbalance.setEndPrice(currentEntry.getValue().low());
-                        currentTempImbalance.setEndTime(currentEntry.getKey());
+                    if (currentEntry.low() < currentTempImbalance.getEndPrice()) {
+                        currentTempImbalance.setEndPrice(currentEntry.low());
+                        currentTempImbalance.setEndTime(currentTime);
                     }
-                    if (currentEntry.getKey() - currentTempImbalance.getEndTime() == duration * 1000L &&
+                    if (currentTime - currentTempImbalance.getEndTime() == duration * 1000L &&
                             currentTempImbalance.getStartPrice() - currentTempImbalance.getEndPrice() > priceChangeThreshold) {
-                        double partition = Math.abs(currentTempImbalance.getEndPrice() - currentEntry.getValue().average()) / currentTempImbalance.size();
+                        double partition = Math.abs(currentTempImbalance.getEndPrice() - currentEntry.average()) / currentTempImbalance.size();
                         if (partition <= 0.16) {
-                            possibleCompletePoints.add(new PossibleCompleteAnalysisDTO(Imbalance.of(currentTempImbalance), currentEntry.getKey(), currentEntry.getValue(), partition));
+                            possibleCompletePoints.add(new PossibleCompleteAnalysisDTO(Imbalance.of(currentTempImbalance), currentTime, currentEntry, partition));
                         }
                     }
                 }
@@ -9,6 +9,7 @@ import org.tradeapp.backtest.domain.OrderType;
 import org.tradeapp.backtest.domain.Position;
 import org.tradeapp.utils.Log;
 import org.tradeapp.backtest.domain.MarketEntry;
+import org.tradeapp.backtest.storage.MarketDataReader;
 import org.tradeapp.ui.domain.MarketKlineEntry;
 import org.tradeapp.ui.utils.TradingVueJsonUpdater;
 
@@ -37,7 +38,7 @@ public class Strategy {
 
     private final Log log = new Log();
     private final ExchangeSimulator simulator;
-    private final TreeMap<Long, MarketEntry> marketData;
+    private final MarketDataReader marketData;
     private TreeMap<Long, MarketKlineEntry> uiMarketData;
     private final ImbalanceService imbalanceService;
 
@@ -46,7 +47,7 @@ public class Strategy {
     private int openTimes = 0;
 
     public Strategy(ExchangeSimulator simulator,
-                    TreeMap<Long, MarketEntry> marketData,
+                    MarketDataReader marketData,
                     TreeMap<Long, MarketKlineEntry> uiMarketData,
                     ImbalanceService imbalanceService,
                     Account account) {
@@ -182,9 +183,7 @@ public class Strategy {
         positions.forEach(position -> {
             if (currentTime - position.getOpenTime() > POSITION_LIVE_TIME) {
                 log.debug(String.format("close positions with timeout %d minutes", POSITION_LIVE_TIME / 60_000L), currentTime);
-                position.close(currentTime, currentEntry.average());
-                account.updateBalance(position);
-                log.debug(String.format("balance updated: %.2f$", account.getBalance()), currentTime);
+                simulator.closeMarket(position, currentTime, currentEntry.average());
             }
         });
     }
@@ -203,7 +202,7 @@ public class Strategy {
                 .toList();
 
         long delay = 10 * 60L * 1000L;
-        uiMarketData = tradingVueJsSecondsUtils.updateMarketData(new TreeMap<>(marketData.subMap(lastImbalance.getStartTime() - delay, currentTime + delay)));
+        uiMarketData = tradingVueJsSecondsUtils.updateMarketData(marketData.read(lastImbalance.getStartTime() - delay, currentTime + delay));
         tradingVueJsSecondsUtils.updateAnalysedData(List.of(lastImbalance), imbPositions);
 
 //        long imbMinuteKey = uiMarketData.keySet().stream()
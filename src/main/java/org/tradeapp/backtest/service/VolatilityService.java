@@ -2,80 +2,158 @@ package org.tradeapp.backtest.service;
 
 import org.tradeapp.backtest.binance.APIService;
 import org.tradeapp.backtest.domain.MarketEntry;
+import org.tradeapp.backtest.domain.MarketSeries;
+import org.tradeapp.backtest.storage.MarketDataReader;
+import org.tradeapp.backtest.storage.Resolution;
 import org.tradeapp.utils.Log;
 
-import java.util.*;
-
 import static org.tradeapp.backtest.constants.Settings.*;
 
 
+/**
+ * Скользящие волатильность и средняя цена по свечам 15m за прошедшие дни.
+ * <p>
+ * Свечи собираются из тиков: high и low текущего интервала обновляются на каждом тике, при переходе в следующий интервал
+ * закрытая свеча добавляется в окно, а свечи старше окна вычитаются из накопленных сумм (high-low)/average и average.
+ * Обновление O(1) на тик без запросов и пересчета всего окна, подписчик получает новые значения после каждой закрытой свечи,
+ * поэтому пороги меняются плавно, без скачков раз в сутки.
+ * <p>
+ * Источник свечей нужен только для начального заполнения окна на первом тике: в бэктесте - локальные агрегаты хранилища
+ * ({@link FileMarketDataLoader#rollupReader}), для работы на бирже - запрос свечей через API ({@link #VolatilityService(String, APIService)}).
+ */
 public class VolatilityService {
 
+    public static final Resolution CANDLES_RESOLUTION = Resolution.MINUTES_15;
+    private static final long DAY_MILLS = 24L * 60L * 60L * 1000L;
+
     private final Log log = new Log();
-    private final APIService apiService;
     private final String symbol;
+    private final MarketDataReader candles;
+    private final long volatilityWindow = VOLATILITY_CALCULATE_PAST_TIME_DAYS * DAY_MILLS;
+    private final long averageWindow = AVERAGE_PRICE_CALCULATE_PAST_TIME_DAYS * DAY_MILLS;
+
+    /**
+     * Закрытые свечи окна по кругу: время начала, (high-low)/average и average
+     */
+    private final long[] times;
+    private final double[] changes;
+    private final double[] averages;
+    private int tail = 0;
+    private int volatilityHead = 0, volatilityCount = 0;
+    private int averageHead = 0, averageCount = 0;
+    private double changesSum = 0., averagesSum = 0.;
+
+    private long currentCandleTime = -1L;
+    private double currentCandleHigh, currentCandleLow;
 
     private VolatilityListener callback;
-    private long lastUpdateTime = -1L;
 
+    /**
+     * Свечи запрашиваются у биржи
+     */
     public VolatilityService(String symbol, APIService apiService) {
+        this(symbol, (fromTime, toTime) -> apiService.getMarketDataPublicAPI(symbol, CANDLES_RESOLUTION.suffix(), fromTime,
+                (int) ((toTime - fromTime) / CANDLES_RESOLUTION.mills()), toTime).getResponse());
+    }
+
+    /**
+     * @param candles свечи {@link #CANDLES_RESOLUTION} со временем начала в [fromTime, toTime)
+     */
+    public VolatilityService(String symbol, MarketDataReader candles) {
         this.symbol = symbol;
-        this.apiService = apiService;
+        this.candles = candles;
+        int capacity = (int) (Math.max(volatilityWindow, averageWindow) / CANDLES_RESOLUTION.mills()) + 1;
+        this.times = new long[capacity];
+        this.changes = new double[capacity];
+        this.averages = new double[capacity];
     }
 
     public void onTick(long currentTime, MarketEntry currentEntry) {
-        if (currentTime - lastUpdateTime > UPDATE_TIME_PERIOD_MILLS) {
-            double volatility = calculateVolatility(currentTime);
-            double average = calculateAverage(currentTime);
-            callback.notify(volatility, average, currentTime);
-            lastUpdateTime = currentTime;
+        long candleTime = CANDLES_RESOLUTION.bucketOf(currentTime);
+        if (currentCandleTime == -1L) {
+            fillWindow(candleTime, currentTime);
+        } else if (candleTime != currentCandleTime) {
+            addCandle(currentCandleTime, currentCandleHigh, currentCandleLow);
+            evict(candleTime);
+            notifyListener(currentTime);
+        }
+        if (candleTime != currentCandleTime) {
+            currentCandleTime = candleTime;
+            currentCandleHigh = currentEntry.high();
+            currentCandleLow = currentEntry.low();
+        } else {
+            currentCandleHigh = Math.max(currentCandleHigh, currentEntry.high());
+            currentCandleLow = Math.min(currentCandleLow, currentEntry.low());
         }
     }
 
-    private double calculateVolatility(long currentTime) {
-        log.debug("Calculating volatility...", currentTime);
-        TreeMap<Long, MarketEntry> marketData = fetchMarketData("15m", VOLATILITY_CALCULATE_PAST_TIME_DAYS, currentTime);
-
-        if (marketData.size() < 2) {
-            log.warn("Insufficient market data for volatility calculation.", currentTime);
-            return 0.0;
+    /**
+     * Начальное заполнение окна закрытыми свечами до текущего интервала, дальше окно обновляется только по тикам
+     */
+    private void fillWindow(long candleTime, long currentTime) {
+        long start = candleTime - Math.max(volatilityWindow, averageWindow);
+        log.debug(String.format("Fetching market data for symbol: %s, interval: %s, from: %d", symbol, CANDLES_RESOLUTION.suffix(), start));
+        MarketSeries marketData = candles.read(start, candleTime);
+        log.debug(String.format("Fetched %d market entries.", marketData.size()));
+        for (int i = 0; i < marketData.size(); i++) {
+            addCandle(marketData.time(i), marketData.high(i), marketData.low(i));
+        }
+        evict(candleTime);
+        if (volatilityCount < 2 || averageCount < 2) {
+            log.warn("Insufficient market data for volatility calculation, window will be filled from ticks.", currentTime);
         }
+        notifyListener(currentTime);
+    }
+
+    /**
+     * В окне не больше свечей, чем интервалов в самом длинном окне, поэтому запись не затирает свечи окна
+     */
+    private void addCandle(long time, double high, double low) {
+        double average = (high + low) / 2.;
+        double change = (high - low) / average;
+        times[tail] = time;
+        changes[tail] = change;
+        averages[tail] = average;
+        tail = next(tail);
+        changesSum += change;
+        averagesSum += average;
+        volatilityCount++;
+        averageCount++;
+    }
 
-        List<Double> changes = new ArrayList<>();
-        for (MarketEntry marketDatum : marketData.values()) {
-            double priceDiff = marketDatum.high() - marketDatum.low();
-            double priceAverage = marketDatum.average();
-            changes.add(priceDiff / priceAverage);
+    /**
+     * Убирает из сумм свечи, начавшиеся раньше окна, считая от начала текущего интервала
+     */
+    private void evict(long candleTime) {
+        while (volatilityCount > 0 && times[volatilityHead] < candleTime - volatilityWindow) {
+            removeVolatility();
+        }
+        while (averageCount > 0 && times[averageHead] < candleTime - averageWindow) {
+            removeAverage();
         }
+    }
 
-        double volatility = changes.stream().reduce(0., Double::sum) / changes.size();
-        log.debug(String.format("Calculated volatility: %.2f", volatility));
-        return volatility;
+    private void removeVolatility() {
+        changesSum -= changes[volatilityHead];
+        volatilityHead = next(volatilityHead);
+        volatilityCount--;
     }
 
-    private double calculateAverage(long currentTime) {
-        log.debug("Calculating average price...", currentTime);
-        TreeMap<Long, MarketEntry> marketData = fetchMarketData("15m", AVERAGE_PRICE_CALCULATE_PAST_TIME_DAYS, currentTime);
+    private void removeAverage() {
+        averagesSum -= averages[averageHead];
+        averageHead = next(averageHead);
+        averageCount--;
+    }
 
-        if (marketData.size() < 2) {
-            log.warn("Insufficient market data for average price calculation.", currentTime);
-            return 0.0;
+    private void notifyListener(long currentTime) {
+        if (volatilityCount < 2 || averageCount < 2) {
+            return;
         }
-
-        double sum = marketData.values().stream().mapToDouble(MarketEntry::average).sum();
-        double average = sum / marketData.size();
-        log.debug(String.format("Calculated average price: %.2f", average));
-        return average;
+        callback.notify(changesSum / volatilityCount, averagesSum / averageCount, currentTime);
     }
 
-    private TreeMap<Long, MarketEntry> fetchMarketData(String interval, int days, long currentTime) {
-        int requiredEntries = days * 24 * 60 / 15;
-        long start = currentTime - days * 24L * 60L * 60L * 1000L;
-        log.debug(String.format("Fetching market data for symbol: %s, interval: %s, required entries: %d", symbol, interval, requiredEntries));
-        TreeMap<Long, MarketEntry> marketData = apiService.getMarketDataPublicAPI(symbol, interval,
-                start, requiredEntries, currentTime).getResponse();
-        log.debug(String.format("Fetched %d market entries.", marketData.size()));
-        return marketData;
+    private int next(int index) {
+        return index + 1 == times.length ? 0 : index + 1;
     }
 
     public void subscribe(VolatilityListener callback) {
@@ -0,0 +1,92 @@
+package org.tradeapp.backtest.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Разбор чисел прямо из байтов ASCII без создания строк.
+ * <p>
+ * Десятичные дроби вида "42000.123456" считаются как целая мантисса, деленная на степень 10.
+ * Пока мантисса меньше 2^53, а степень не больше 10^22, оба числа точно представимы в double
+ * и результат деления совпадает с {@link Double#parseDouble}. Остальные случаи (экспонента, длинные мантиссы)
+ * разбираются через {@link Double#parseDouble}.
+ */
+public final class AsciiNumbers {
+
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        double power = 1.;
+        for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = power;
+            power *= 10.;
+        }
+    }
+
+    private AsciiNumbers() {  }
+
+    /**
+     * @param from индекс первого символа
+     * @param to индекс после последнего символа
+     */
+    public static long parseLong(ByteBuffer buffer, int from, int to) {
+        if (from >= to) {
+            throw new NumberFormatException("Empty number");
+        }
+        boolean negative = buffer.get(from) == '-';
+        int i = negative ? from + 1 : from;
+        if (i == to) {
+            throw new NumberFormatException(text(buffer, from, to));
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException(text(buffer, from, to));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    public static double parseDouble(ByteBuffer buffer, int from, int to) {
+        if (from >= to) {
+            throw new NumberFormatException("Empty number");
+        }
+        boolean negative = buffer.get(from) == '-';
+        int i = negative || buffer.get(from) == '+' ? from + 1 : from;
+        long mantissa = 0;
+        int fractionDigits = 0;
+        boolean fraction = false;
+        boolean digits = false;
+        for (; i < to; i++) {
+            byte symbol = buffer.get(i);
+            if (symbol >= '0' && symbol <= '9') {
+                mantissa = mantissa * 10 + (symbol - '0');
+                if (mantissa >= MAX_EXACT_MANTISSA) {
+                    return Double.parseDouble(text(buffer, from, to));
+                }
+                digits = true;
+                if (fraction) {
+                    fractionDigits++;
+                }
+            } else if (symbol == '.' && !fraction) {
+                fraction = true;
+            } else {
+                return Double.parseDouble(text(buffer, from, to));
+            }
+        }
+        if (!digits || fractionDigits >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(text(buffer, from, to));
+        }
+        double value = (double) mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    private static String text(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
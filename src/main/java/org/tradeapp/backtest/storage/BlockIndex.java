@@ -0,0 +1,195 @@
+package org.tradeapp.backtest.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Разреженный индекс по времени, который лежит рядом с файлом данных.
+ * На каждый блок из blockRows строк хранится время первой строки блока и смещение блока в файле данных
+ * (для колоночного файла - номер строки, для сжатого архива - байт).
+ * <p>
+ * Индекс целиком помещается в память (год ежесекундных данных ~ 8 тысяч блоков),
+ * поэтому поиск диапазона [from, to) стоит бинарного поиска в памяти и чтения одного блока данных.
+ * Файл индекса только дописывается: новая запись в конец, затем количество записей в заголовке.
+ */
+public class BlockIndex implements AutoCloseable {
+
+    public static final String EXTENSION = ".idx";
+    public static final int HEADER_SIZE = 32;
+    private static final int ENTRY_SIZE = 2 * Long.BYTES;
+
+    private static final int MAGIC = 0x54424958; // "TBIX"
+    private static final int VERSION = 1;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int BLOCK_ROWS_OFFSET = 8;
+    private static final int COUNT_OFFSET = 16;
+
+    private final int blockRows;
+    private FileChannel channel;
+    private long[] firstTimes;
+    private long[] offsets;
+    private int count;
+
+    private BlockIndex(int blockRows, FileChannel channel, long[] firstTimes, long[] offsets, int count) {
+        this.blockRows = blockRows;
+        this.channel = channel;
+        this.firstTimes = firstTimes;
+        this.offsets = offsets;
+        this.count = count;
+    }
+
+    /**
+     * Пустой индекс только в памяти
+     */
+    public static BlockIndex inMemory(int blockRows) {
+        return new BlockIndex(blockRows, null, new long[16], new long[16], 0);
+    }
+
+    /**
+     * Читает индекс из файла.
+     * @return null если файла нет или он поврежден, тогда индекс нужно перестроить по файлу данных
+     */
+    public static BlockIndex load(Path path, boolean writable) {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try {
+            FileChannel channel = writable
+                    ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                    : FileChannel.open(path, StandardOpenOption.READ);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            int count = (int) header.getLong(COUNT_OFFSET);
+            if (header.getInt(MAGIC_OFFSET) != MAGIC || header.getInt(VERSION_OFFSET) != VERSION ||
+                    channel.size() < HEADER_SIZE + (long) count * ENTRY_SIZE) {
+                channel.close();
+                return null;
+            }
+            ByteBuffer entries = ByteBuffer.allocate(count * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(entries, HEADER_SIZE);
+            long[] firstTimes = new long[Math.max(16, count)];
+            long[] offsets = new long[Math.max(16, count)];
+            for (int i = 0; i < count; i++) {
+                firstTimes[i] = entries.getLong(i * ENTRY_SIZE);
+                offsets[i] = entries.getLong(i * ENTRY_SIZE + Long.BYTES);
+            }
+            BlockIndex index = new BlockIndex(header.getInt(BLOCK_ROWS_OFFSET), writable ? channel : null, firstTimes, offsets, count);
+            if (!writable) {
+                channel.close();
+            }
+            return index;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Создает новый пустой файл индекса (существующий перезаписывается)
+     */
+    public static BlockIndex create(Path path, int blockRows) {
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC_OFFSET, MAGIC);
+            header.putInt(VERSION_OFFSET, VERSION);
+            header.putInt(BLOCK_ROWS_OFFSET, blockRows);
+            header.putLong(COUNT_OFFSET, 0L);
+            MarketDataFile.writeFully(channel, header, 0);
+            return new BlockIndex(blockRows, channel, new long[16], new long[16], 0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public int blockRows() {
+        return blockRows;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public long firstTime(int block) {
+        return firstTimes[block];
+    }
+
+    public long offset(int block) {
+        return offsets[block];
+    }
+
+    /**
+     * Добавляет блок в конец индекса. Время первых строк блоков должно возрастать.
+     */
+    public void add(long firstTime, long offset) {
+        if (count == firstTimes.length) {
+            firstTimes = Arrays.copyOf(firstTimes, count * 2);
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        firstTimes[count] = firstTime;
+        offsets[count] = offset;
+        count++;
+        if (channel != null) {
+            try {
+                ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                entry.putLong(0, firstTime);
+                entry.putLong(Long.BYTES, offset);
+                MarketDataFile.writeFully(channel, entry, HEADER_SIZE + (long) (count - 1) * ENTRY_SIZE);
+                ByteBuffer header = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putLong(0, count);
+                MarketDataFile.writeFully(channel, header, COUNT_OFFSET);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Блок, в котором может находиться первая строка со временем не меньше time:
+     * последний блок, начинающийся не позже time (или первый блок, если time раньше всех данных).
+     */
+    public int blockOf(long time) {
+        int low = 0;
+        int high = count - 1;
+        int result = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (firstTimes[middle] <= time) {
+                result = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return result;
+    }
+
+    public void force() {
+        if (channel != null) {
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package org.tradeapp.backtest.storage;
+
+import org.tradeapp.backtest.domain.ArrayMarketSeries;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Сжатый архив партиции ежесекундных данных для завершенных лет.
+ * <p>
+ * Формат файла:
+ * <li> заголовок {@link #HEADER_SIZE} байт: magic, версия, строк в блоке, строк всего, блоков, время первой и последней строки</li>
+ * <li> блоки по {@link MarketDataFile#BLOCK_ROWS} строк (последний может быть короче):
+ * количество строк, длина в байтах, данные в кодировке {@link GorillaCodec}</li>
+ * <p>
+ * Блоки декодируются независимо, рядом лежит {@link BlockIndex} с временем первой строки и смещением блока в байтах,
+ * поэтому чтение окна декодирует только нужные блоки. Архив только читается: он пишется целиком во временный файл
+ * и атомарно переименовывается.
+ */
+public class CompressedMarketDataFile implements MarketDataPartition {
+
+    public static final String EXTENSION = ".tsz";
+    public static final int HEADER_SIZE = 64;
+    private static final int BLOCK_HEADER_SIZE = 2 * Integer.BYTES;
+
+    private static final int MAGIC = 0x544D445A; // "TMDZ"
+    private static final int VERSION = 1;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int BLOCK_ROWS_OFFSET = 8;
+    private static final int ROWS_OFFSET = 16;
+    private static final int BLOCKS_OFFSET = 24;
+    private static final int FIRST_TIME_OFFSET = 32;
+    private static final int LAST_TIME_OFFSET = 40;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteBuffer data;
+    private final int blockRows;
+    private final int size;
+    private final long firstTime;
+    private final long lastTime;
+    private final BlockIndex index;
+
+    private CompressedMarketDataFile(Path path, FileChannel channel, ByteBuffer data, BlockIndex index) {
+        this.path = path;
+        this.channel = channel;
+        this.data = data;
+        this.blockRows = data.getInt(BLOCK_ROWS_OFFSET);
+        this.size = (int) data.getLong(ROWS_OFFSET);
+        this.firstTime = data.getLong(FIRST_TIME_OFFSET);
+        this.lastTime = data.getLong(LAST_TIME_OFFSET);
+        this.index = index;
+    }
+
+    public static CompressedMarketDataFile open(Path path) {
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            if (channel.size() > Integer.MAX_VALUE) {
+                channel.close();
+                throw new IllegalStateException("File " + path + " is too large");
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            if (data.limit() < HEADER_SIZE || data.getInt(MAGIC_OFFSET) != MAGIC) {
+                channel.close();
+                throw new IllegalStateException("File " + path + " is not a compressed market data file");
+            }
+            if (data.getInt(VERSION_OFFSET) != VERSION) {
+                channel.close();
+                throw new IllegalStateException("File " + path + " has unsupported version " + data.getInt(VERSION_OFFSET));
+            }
+            return new CompressedMarketDataFile(path, channel, data, openIndex(path, data));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Сжимает партицию в архив path. Партиция читается блоками, поэтому год целиком в память не загружается.
+     */
+    public static void write(MarketDataPartition source, Path path) {
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        int blockRows = MarketDataFile.BLOCK_ROWS;
+        try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+             BlockIndex index = BlockIndex.create(MarketDataFile.indexPath(tmpPath), blockRows)) {
+            long offset = HEADER_SIZE;
+            int blocks = 0;
+            for (int from = 0; from < source.size(); from += blockRows) {
+                ArrayMarketSeries block = source.read(from, Math.min(source.size(), from + blockRows));
+                byte[] encoded = GorillaCodec.encode(block, 0, block.size());
+                ByteBuffer buffer = ByteBuffer.allocate(BLOCK_HEADER_SIZE + encoded.length).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(block.size()).putInt(encoded.length).put(encoded).flip();
+                MarketDataFile.writeFully(channel, buffer, offset);
+                index.add(block.time(0), offset);
+                offset += buffer.limit();
+                blocks++;
+            }
+            MarketDataFile.writeFully(channel, ByteBuffer.allocate(GorillaCodec.PADDING), offset);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC_OFFSET, MAGIC);
+            header.putInt(VERSION_OFFSET, VERSION);
+            header.putInt(BLOCK_ROWS_OFFSET, blockRows);
+            header.putLong(ROWS_OFFSET, source.size());
+            header.putLong(BLOCKS_OFFSET, blocks);
+            header.putLong(FIRST_TIME_OFFSET, source.isEmpty() ? 0L : source.firstTime());
+            header.putLong(LAST_TIME_OFFSET, source.isEmpty() ? 0L : source.lastTime());
+            MarketDataFile.writeFully(channel, header, 0);
+            channel.force(false);
+            index.force();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            Files.move(MarketDataFile.indexPath(tmpPath), MarketDataFile.indexPath(path), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long firstTime() {
+        return firstTime;
+    }
+
+    @Override
+    public long lastTime() {
+        return lastTime;
+    }
+
+    /**
+     * Поиск блока по индексу в памяти и бинарный поиск по декодированному времени одного блока
+     */
+    @Override
+    public int ceilingIndex(long time) {
+        if (size == 0 || time > lastTime) {
+            return size;
+        }
+        int block = index.blockOf(time);
+        int count = blockSize(block);
+        long[] times = new long[count];
+        GorillaCodec.decode(data, blockDataOffset(block), count, times, null, null, null, 0);
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[middle] < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return block * blockRows + low;
+    }
+
+    /**
+     * Декодирует блоки, которые пересекают строки [from, to). Блоки целиком внутри диапазона декодируются прямо в результат.
+     */
+    @Override
+    public ArrayMarketSeries read(int from, int to) {
+        int count = to - from;
+        long[] time = new long[count];
+        double[] high = new double[count];
+        double[] low = new double[count];
+        double[] volume = new double[count];
+        long[] blockTime = null;
+        double[] blockHigh = null;
+        double[] blockLow = null;
+        double[] blockVolume = null;
+        for (int block = from / blockRows; count > 0 && block <= (to - 1) / blockRows; block++) {
+            int blockFrom = block * blockRows;
+            int blockCount = blockSize(block);
+            int copyFrom = Math.max(from, blockFrom);
+            int copyTo = Math.min(to, blockFrom + blockCount);
+            if (copyFrom == blockFrom && copyTo == blockFrom + blockCount) {
+                GorillaCodec.decode(data, blockDataOffset(block), blockCount, time, high, low, volume, blockFrom - from);
+                continue;
+            }
+            if (blockTime == null) {
+                blockTime = new long[blockRows];
+                blockHigh = new double[blockRows];
+                blockLow = new double[blockRows];
+                blockVolume = new double[blockRows];
+            }
+            GorillaCodec.decode(data, blockDataOffset(block), blockCount, blockTime, blockHigh, blockLow, blockVolume, 0);
+            System.arraycopy(blockTime, copyFrom - blockFrom, time, copyFrom - from, copyTo - copyFrom);
+            System.arraycopy(blockHigh, copyFrom - blockFrom, high, copyFrom - from, copyTo - copyFrom);
+            System.arraycopy(blockLow, copyFrom - blockFrom, low, copyFrom - from, copyTo - copyFrom);
+            System.arraycopy(blockVolume, copyFrom - blockFrom, volume, copyFrom - from, copyTo - copyFrom);
+        }
+        return new ArrayMarketSeries(time, high, low, volume, 0, count);
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private int blockSize(int block) {
+        return data.getInt((int) index.offset(block));
+    }
+
+    private int blockDataOffset(int block) {
+        return (int) index.offset(block) + BLOCK_HEADER_SIZE;
+    }
+
+    /**
+     * Загружает индекс блоков, отсутствующий или не совпадающий с архивом индекс перестраивается в памяти
+     * проходом по заголовкам блоков.
+     */
+    private static BlockIndex openIndex(Path path, ByteBuffer data) {
+        int blockRows = data.getInt(BLOCK_ROWS_OFFSET);
+        int blocks = (int) data.getLong(BLOCKS_OFFSET);
+        BlockIndex loaded = BlockIndex.load(MarketDataFile.indexPath(path), false);
+        if (loaded != null && loaded.blockRows() == blockRows && loaded.count() == blocks) {
+            return loaded;
+        }
+        BlockIndex index = BlockIndex.inMemory(blockRows);
+        long[] time = new long[1];
+        int offset = HEADER_SIZE;
+        for (int block = 0; block < blocks; block++) {
+            GorillaCodec.decode(data, offset + BLOCK_HEADER_SIZE, 1, time, null, null, null, 0);
+            index.add(time[0], offset);
+            offset += BLOCK_HEADER_SIZE + data.getInt(offset + Integer.BYTES);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,331 @@
+package org.tradeapp.backtest.storage;
+
+import org.tradeapp.backtest.domain.MarketSeries;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Кодирование блока ежесекундных строк в стиле Gorilla (Facebook TSDB).
+ * <p>
+ * Время кодируется как delta-of-delta: при шаге ровно 1000мс на строку уходит один бит.
+ * Колонки double кодируются двумя способами, способ выбирается для каждой колонки каждого блока:
+ * <li> десятичный - если все значения блока точно восстанавливаются как целое / 10^scale
+ * (цены и объемы Binance десятичные), кодируются целые: для цен разница с предыдущей строкой, для объема само значение</li>
+ * <li> XOR с предыдущим значением - общий случай Gorilla для произвольных double</li>
+ * <p>
+ * Каждый блок кодируется с нуля и декодируется независимо от остальных.
+ */
+final class GorillaCodec {
+
+    private static final int MAX_DECIMAL_SCALE = 10;
+    private static final int XOR_MODE = 15;
+    private static final double[] POWERS_OF_TEN = new double[MAX_DECIMAL_SCALE + 1];
+
+    static {
+        for (int i = 0; i <= MAX_DECIMAL_SCALE; i++) {
+            POWERS_OF_TEN[i] = Math.pow(10, i);
+        }
+    }
+
+    /**
+     * Количество байт, которое можно прочитать после конца последнего блока.
+     * Декодер читает биты окнами по 8 байт, поэтому в конце файла нужен такой запас.
+     */
+    static final int PADDING = Long.BYTES;
+
+    private GorillaCodec() {  }
+
+    /**
+     * Кодирует строки [from, to) ряда
+     */
+    static byte[] encode(MarketSeries series, int from, int to) {
+        BitWriter writer = new BitWriter((to - from) * 8 + 64);
+        encodeTime(writer, series, from, to);
+        encodeColumn(writer, column(series, 1, from, to), true);
+        encodeColumn(writer, column(series, 2, from, to), true);
+        encodeColumn(writer, column(series, 3, from, to), false);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Декодирует count строк блока, который начинается с байта offset, в массивы начиная с позиции at.
+     * Если high == null, декодируется только время (для поиска внутри блока).
+     */
+    static void decode(ByteBuffer buffer, int offset, int count,
+                       long[] time, double[] high, double[] low, double[] volume, int at) {
+        BitReader reader = new BitReader(buffer, offset);
+        decodeTime(reader, count, time, at);
+        if (high == null) {
+            return;
+        }
+        decodeColumn(reader, count, high, at, true);
+        decodeColumn(reader, count, low, at, true);
+        decodeColumn(reader, count, volume, at, false);
+    }
+
+    private static void encodeTime(BitWriter writer, MarketSeries series, int from, int to) {
+        writer.write(series.time(from), 64);
+        long previous = series.time(from);
+        long previousDelta = 0;
+        for (int i = from + 1; i < to; i++) {
+            long delta = series.time(i) - previous;
+            writer.writeSigned(delta - previousDelta);
+            previous = series.time(i);
+            previousDelta = delta;
+        }
+    }
+
+    private static void decodeTime(BitReader reader, int count, long[] time, int at) {
+        long previous = reader.read(64);
+        long delta = 0;
+        time[at] = previous;
+        for (int i = 1; i < count; i++) {
+            delta += reader.readSigned();
+            previous += delta;
+            time[at + i] = previous;
+        }
+    }
+
+    /**
+     * @param delta кодировать разницу с предыдущим значением (цены) или само значение (объем)
+     */
+    private static void encodeColumn(BitWriter writer, double[] values, boolean delta) {
+        int scale = decimalScale(values);
+        if (scale < 0) {
+            writer.write(XOR_MODE, 4);
+            encodeXor(writer, values);
+            return;
+        }
+        writer.write(scale, 4);
+        double power = POWERS_OF_TEN[scale];
+        long previous = 0;
+        for (double value : values) {
+            long units = Math.round(value * power);
+            writer.writeSigned(delta ? units - previous : units);
+            previous = units;
+        }
+    }
+
+    private static void decodeColumn(BitReader reader, int count, double[] values, int at, boolean delta) {
+        int scale = (int) reader.read(4);
+        if (scale == XOR_MODE) {
+            decodeXor(reader, count, values, at);
+            return;
+        }
+        double power = POWERS_OF_TEN[scale];
+        long units = 0;
+        for (int i = 0; i < count; i++) {
+            units = delta ? units + reader.readSigned() : reader.readSigned();
+            values[at + i] = units / power;
+        }
+    }
+
+    /**
+     * Минимальный scale, при котором все значения точно (до бита) восстанавливаются как round(value * 10^scale) / 10^scale.
+     * @return -1 если такого scale нет, тогда колонка кодируется через XOR
+     */
+    private static int decimalScale(double[] values) {
+        int scale = 0;
+        for (double value : values) {
+            if (!Double.isFinite(value) || Math.abs(value) >= 1e12) {
+                return -1;
+            }
+            while (!isDecimal(value, scale)) {
+                if (++scale > MAX_DECIMAL_SCALE) {
+                    return -1;
+                }
+            }
+        }
+        for (double value : values) {
+            if (!isDecimal(value, scale)) {
+                return -1;
+            }
+        }
+        return scale;
+    }
+
+    private static boolean isDecimal(double value, int scale) {
+        double power = POWERS_OF_TEN[scale];
+        long units = Math.round(value * power);
+        return Math.abs(units) < (1L << 52) &&
+                Double.doubleToRawLongBits(units / power) == Double.doubleToRawLongBits(value);
+    }
+
+    /**
+     * Gorilla XOR: '0' - значение не изменилось, '10' - значимые биты внутри прошлого окна,
+     * '11' - новое окно: 6 бит ведущих нулей, 6 бит длины значимой части минус один, значимые биты.
+     */
+    private static void encodeXor(BitWriter writer, double[] values) {
+        long previous = Double.doubleToRawLongBits(values[0]);
+        writer.write(previous, 64);
+        int previousLeading = Integer.MAX_VALUE;
+        int previousTrailing = 0;
+        for (int i = 1; i < values.length; i++) {
+            long bits = Double.doubleToRawLongBits(values[i]);
+            long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                writer.write(0, 1);
+                continue;
+            }
+            int leading = Long.numberOfLeadingZeros(xor);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (leading >= previousLeading && trailing >= previousTrailing) {
+                writer.write(0b10, 2);
+                writer.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            } else {
+                int meaningful = 64 - leading - trailing;
+                writer.write(0b11, 2);
+                writer.write(leading, 6);
+                writer.write(meaningful - 1, 6);
+                writer.write(xor >>> trailing, meaningful);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+    }
+
+    private static void decodeXor(BitReader reader, int count, double[] values, int at) {
+        long previous = reader.read(64);
+        values[at] = Double.longBitsToDouble(previous);
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < count; i++) {
+            if (reader.read(1) != 0) {
+                if (reader.read(1) != 0) {
+                    leading = (int) reader.read(6);
+                    trailing = 64 - leading - ((int) reader.read(6) + 1);
+                }
+                previous ^= reader.read(64 - leading - trailing) << trailing;
+            }
+            values[at + i] = Double.longBitsToDouble(previous);
+        }
+    }
+
+    private static double[] column(MarketSeries series, int column, int from, int to) {
+        double[] values = new double[to - from];
+        for (int i = from; i < to; i++) {
+            values[i - from] = switch (column) {
+                case 1 -> series.high(i);
+                case 2 -> series.low(i);
+                default -> series.volume(i);
+            };
+        }
+        return values;
+    }
+
+    /**
+     * Запись бит от старших к младшим.
+     * Целые со знаком пишутся префиксным кодом: '0' - ноль, '10' + 7 бит, '110' + 12 бит,
+     * '1110' + 20 бит, '11110' + 32 бита, '11111' + 64 бита.
+     */
+    static final class BitWriter {
+        private long[] words;
+        private int bits = 0;
+
+        BitWriter(int expectedBits) {
+            this.words = new long[expectedBits / 64 + 2];
+        }
+
+        void write(long value, int count) {
+            if (count == 0) {
+                return;
+            }
+            if (count < 64) {
+                value &= (1L << count) - 1;
+            }
+            if ((bits + count) / 64 + 1 >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            int word = bits >>> 6;
+            int used = bits & 63;
+            int free = 64 - used;
+            if (count <= free) {
+                words[word] |= value << (free - count);
+            } else {
+                words[word] |= value >>> (count - free);
+                words[word + 1] |= value << (64 - (count - free));
+            }
+            bits += count;
+        }
+
+        void writeSigned(long value) {
+            if (value == 0) {
+                write(0, 1);
+            } else if (value >= -64 && value < 64) {
+                write(0b10, 2);
+                write(value, 7);
+            } else if (value >= -2048 && value < 2048) {
+                write(0b110, 3);
+                write(value, 12);
+            } else if (value >= -(1 << 19) && value < (1 << 19)) {
+                write(0b1110, 4);
+                write(value, 20);
+            } else if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                write(0b11110, 5);
+                write(value, 32);
+            } else {
+                write(0b11111, 5);
+                write(value, 64);
+            }
+        }
+
+        byte[] toByteArray() {
+            byte[] bytes = new byte[(bits + 7) / 8];
+            ByteBuffer buffer = ByteBuffer.allocate(words.length * Long.BYTES);
+            buffer.asLongBuffer().put(words);
+            buffer.get(0, bytes);
+            return bytes;
+        }
+    }
+
+    /**
+     * Чтение бит окнами по 8 байт (big-endian), после данных должно быть {@link #PADDING} байт
+     */
+    static final class BitReader {
+        private final ByteBuffer buffer;
+        private long position;
+
+        BitReader(ByteBuffer buffer, int offset) {
+            this.buffer = buffer.order() == ByteOrder.BIG_ENDIAN ? buffer : buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+            this.position = (long) offset * 8;
+        }
+
+        long read(int count) {
+            if (count == 0) {
+                return 0;
+            }
+            if (count > 56) {
+                long high = read(32);
+                return (high << (count - 32)) | read(count - 32);
+            }
+            long window = buffer.getLong((int) (position >>> 3));
+            long value = (window << (position & 7)) >>> (64 - count);
+            position += count;
+            return value;
+        }
+
+        /**
+         * Префикс читается одним окном: количество ведущих единиц определяет размер значения
+         */
+        long readSigned() {
+            long window = buffer.getLong((int) (position >>> 3)) << (position & 7);
+            int ones = Math.min(5, Long.numberOfLeadingZeros(~window));
+            position += ones == 5 ? 5 : ones + 1;
+            return switch (ones) {
+                case 0 -> 0;
+                case 1 -> signed(read(7), 7);
+                case 2 -> signed(read(12), 12);
+                case 3 -> signed(read(20), 20);
+                case 4 -> signed(read(32), 32);
+                default -> read(64);
+            };
+        }
+
+        private static long signed(long value, int count) {
+            return (value << (64 - count)) >> (64 - count);
+        }
+    }
+}
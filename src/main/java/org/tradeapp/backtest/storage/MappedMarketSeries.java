@@ -0,0 +1,132 @@
+package org.tradeapp.backtest.storage;
+
+import org.tradeapp.backtest.domain.MarketSeries;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ряд ежесекундных данных за несколько партиций, который читается прямо из отображенных в память файлов без копирования в heap.
+ * Вся история доступна по индексу, а в heap лежат только объекты отображений, поэтому размер истории не влияет на GC.
+ * <p>
+ * Отображения партиций общие для всех потоков JVM ({@link SharedMarketDataMapping}): несколько бэктестов одного символа
+ * читают одни и те же страницы. {@link #slice} и {@link #subRange} возвращают представления без копирования,
+ * отображения освобождает только ряд, полученный из {@link #open}.
+ */
+public class MappedMarketSeries implements MarketSeries, AutoCloseable {
+
+    private final List<SharedMarketDataMapping> mappings;
+    private final MarketDataFile[] partitions;
+    /**
+     * Сквозной индекс первой строки каждой партиции, последний элемент - количество строк всех партиций
+     */
+    private final int[] starts;
+    private final int from;
+    private final int to;
+
+    private MappedMarketSeries(List<SharedMarketDataMapping> mappings, MarketDataFile[] partitions, int[] starts, int from, int to) {
+        this.mappings = mappings;
+        this.partitions = partitions;
+        this.starts = starts;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Отображает партиции (бинарные или сжатые архивы, по возрастанию времени) и возвращает строки [fromTime, toTime)
+     */
+    public static MappedMarketSeries open(List<Path> paths, long fromTime, long toTime) {
+        List<SharedMarketDataMapping> mappings = new ArrayList<>();
+        try {
+            for (Path path : paths) {
+                mappings.add(SharedMarketDataMapping.acquire(path));
+            }
+        } catch (RuntimeException e) {
+            mappings.forEach(SharedMarketDataMapping::release);
+            throw e;
+        }
+        MarketDataFile[] partitions = new MarketDataFile[mappings.size()];
+        int[] starts = new int[mappings.size() + 1];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = mappings.get(i).file();
+            starts[i + 1] = Math.addExact(starts[i], partitions[i].size());
+        }
+        MappedMarketSeries all = new MappedMarketSeries(mappings, partitions, starts, 0, starts[partitions.length]);
+        int from = all.ceilingIndex(fromTime);
+        int to = Math.max(from, all.ceilingIndex(toTime));
+        return new MappedMarketSeries(mappings, partitions, starts, from, to);
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public long time(int index) {
+        int row = from + index;
+        int partition = partitionOf(row);
+        return partitions[partition].time(row - starts[partition]);
+    }
+
+    @Override
+    public double high(int index) {
+        int row = from + index;
+        int partition = partitionOf(row);
+        return partitions[partition].high(row - starts[partition]);
+    }
+
+    @Override
+    public double low(int index) {
+        int row = from + index;
+        int partition = partitionOf(row);
+        return partitions[partition].low(row - starts[partition]);
+    }
+
+    @Override
+    public double volume(int index) {
+        int row = from + index;
+        int partition = partitionOf(row);
+        return partitions[partition].volume(row - starts[partition]);
+    }
+
+    @Override
+    public MappedMarketSeries slice(int from, int to) {
+        return new MappedMarketSeries(null, partitions, starts, this.from + from, this.from + to);
+    }
+
+    /**
+     * Поиск партиции по времени и поиск внутри партиции по ее индексу блоков
+     */
+    @Override
+    public int ceilingIndex(long time) {
+        int row = starts[partitions.length];
+        for (int partition = 0; partition < partitions.length; partition++) {
+            MarketDataFile file = partitions[partition];
+            if (!file.isEmpty() && time <= file.lastTime()) {
+                row = starts[partition] + file.ceilingIndex(time);
+                break;
+            }
+        }
+        return Math.min(Math.max(row, from), to) - from;
+    }
+
+    @Override
+    public void close() {
+        if (mappings != null) {
+            mappings.forEach(SharedMarketDataMapping::release);
+        }
+    }
+
+    /**
+     * Партиций обычно одна-две, поэтому линейный поиск с конца
+     */
+    private int partitionOf(int row) {
+        int partition = partitions.length - 1;
+        while (starts[partition] > row) {
+            partition--;
+        }
+        return partition;
+    }
+}
@@ -0,0 +1,75 @@
+package org.tradeapp.backtest.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Каталог локальных ежесекундных данных: какие символы и за какие годы лежат в директории данных.
+ * Партиция символа - файл SYMBOL_YEAR в любом из форматов (бинарный, сжатый архив, старый текстовый),
+ * файлы агрегатов, индексов и манифестов в каталог не попадают.
+ */
+public class MarketDataCatalog {
+
+    private static final Pattern PARTITION = Pattern.compile("([A-Z0-9]+)_(\\d{4})(" +
+            Pattern.quote(MarketDataFile.EXTENSION) + "|" + Pattern.quote(CompressedMarketDataFile.EXTENSION) + "|\\.txt)");
+
+    private final Path directory;
+    private final TreeMap<String, TreeSet<Integer>> partitions = new TreeMap<>();
+
+    private MarketDataCatalog(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Просматривает директорию данных. Если директории нет, каталог пустой.
+     */
+    public static MarketDataCatalog scan(Path directory) {
+        MarketDataCatalog catalog = new MarketDataCatalog(directory);
+        if (!Files.isDirectory(directory)) {
+            return catalog;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher matcher = PARTITION.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    catalog.partitions.computeIfAbsent(matcher.group(1), symbol -> new TreeSet<>())
+                            .add(Integer.parseInt(matcher.group(2)));
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return catalog;
+    }
+
+    public Set<String> symbols() {
+        return Collections.unmodifiableSet(partitions.keySet());
+    }
+
+    /**
+     * Годы, за которые есть партиции символа (пустой набор, если данных нет)
+     */
+    public NavigableSet<Integer> years(String symbol) {
+        return Collections.unmodifiableNavigableSet(partitions.getOrDefault(symbol, new TreeSet<>()));
+    }
+
+    public boolean contains(String symbol) {
+        return partitions.containsKey(symbol);
+    }
+
+    /**
+     * Префикс путей партиций символа для {@code FileMarketDataLoader}: директория/SYMBOL
+     */
+    public String pathPrefix(String symbol) {
+        return directory.resolve(symbol).toString();
+    }
+}
@@ -0,0 +1,21 @@
+package org.tradeapp.backtest.storage;
+
+import org.tradeapp.backtest.domain.MarketSeries;
+
+/**
+ * Последовательное чтение ежесекундных данных блоками в диапазоне времени [fromTime, toTime).
+ */
+public interface MarketDataCursor extends AutoCloseable {
+
+    long fromTime();
+
+    long toTime();
+
+    /**
+     * @return следующий непустой блок строк или null, если данные закончились
+     */
+    MarketSeries next();
+
+    @Override
+    void close();
+}
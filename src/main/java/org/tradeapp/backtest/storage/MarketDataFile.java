@@ -0,0 +1,412 @@
+package org.tradeapp.backtest.storage;
+
+import org.tradeapp.backtest.domain.ArrayMarketSeries;
+import org.tradeapp.backtest.domain.MarketSeries;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Колоночный бинарный файл ежесекундных данных (одна партиция, обычно один год).
+ * <p>
+ * Формат файла:
+ * <li> заголовок {@link #HEADER_SIZE} байт: magic, версия, capacity (максимум строк), size (записано строк)</li>
+ * <li> четыре колонки фиксированной ширины по capacity элементов: time (long), high, low, volume (double)</li>
+ * <p>
+ * Колонки читаются через {@link FileChannel#map}, поэтому открытие года занимает миллисекунды,
+ * а значения читаются прямо из page cache без парсинга.
+ * Запись только дописыванием в конец колонок. Size в заголовке - запись фиксации: он обновляется в {@link #force()}
+ * после сброса колонок на диск (и при закрытии), поэтому после падения файл содержит только зафиксированные строки
+ * и никогда не содержит недописанных.
+ * <p>
+ * Рядом лежит разреженный {@link BlockIndex} (время первой строки каждого блока из {@link #BLOCK_ROWS} строк),
+ * поэтому поиск времени читает один блок колонки времени, а не делает бинарный поиск по всему году.
+ * Если индекс отсутствует или отстал от данных (например, после падения между записью данных и индекса), он перестраивается.
+ */
+public class MarketDataFile implements MarketDataPartition {
+
+    public static final String EXTENSION = ".bin";
+    public static final int HEADER_SIZE = 64;
+    public static final int COLUMNS_COUNT = 4;
+    /**
+     * Строк в блоке индекса: 4096 секунд ~ 68 минут, 32КБ колонки времени
+     */
+    public static final int BLOCK_ROWS = 4096;
+
+    private static final int MAGIC = 0x544D4446; // "TMDF"
+    private static final int VERSION = 1;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int SIZE_OFFSET = 16;
+
+    private static final int TIME_COLUMN = 0;
+    private static final int HIGH_COLUMN = 1;
+    private static final int LOW_COLUMN = 2;
+    private static final int VOLUME_COLUMN = 3;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final boolean writable;
+    private final long capacity;
+    private int size;
+
+    private LongBuffer times;
+    private DoubleBuffer highs;
+    private DoubleBuffer lows;
+    private DoubleBuffer volumes;
+    private BlockIndex index;
+
+    private MarketDataFile(Path path, FileChannel channel, boolean writable, long capacity, int size) {
+        this.path = path;
+        this.channel = channel;
+        this.writable = writable;
+        this.capacity = capacity;
+        this.size = size;
+    }
+
+    /**
+     * Открывает файл только для чтения. Доступно size строк из заголовка на момент открытия.
+     */
+    public static MarketDataFile openReadOnly(Path path) {
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            ByteBuffer header = readHeader(channel, path);
+            MarketDataFile file = new MarketDataFile(path, channel, false,
+                    header.getLong(CAPACITY_OFFSET), (int) header.getLong(SIZE_OFFSET));
+            file.map();
+            file.openIndex();
+            return file;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Открывает файл для дописывания. Если файла нет, создается пустой файл на capacity строк.
+     * Неиспользуемая часть колонок остается разреженной и места на диске не занимает.
+     */
+    public static MarketDataFile openWritable(Path path, long capacity) {
+        if (capacity <= 0 || capacity > Integer.MAX_VALUE / Long.BYTES) {
+            throw new IllegalArgumentException("Unsupported capacity " + capacity);
+        }
+        try {
+            boolean exists = Files.exists(path);
+            FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MarketDataFile file;
+            if (exists && channel.size() > 0) {
+                ByteBuffer header = readHeader(channel, path);
+                file = new MarketDataFile(path, channel, true,
+                        header.getLong(CAPACITY_OFFSET), (int) header.getLong(SIZE_OFFSET));
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC_OFFSET, MAGIC);
+                header.putInt(VERSION_OFFSET, VERSION);
+                header.putLong(CAPACITY_OFFSET, capacity);
+                header.putLong(SIZE_OFFSET, 0L);
+                writeFully(channel, header, 0);
+                writeZeroAt(channel, HEADER_SIZE + capacity * Long.BYTES * COLUMNS_COUNT - 1);
+                file = new MarketDataFile(path, channel, true, capacity, 0);
+            }
+            file.map();
+            file.openIndex();
+            return file;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static Path indexPath(Path path) {
+        return path.resolveSibling(path.getFileName() + BlockIndex.EXTENSION);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    public long time(int index) {
+        return times.get(index);
+    }
+
+    public double high(int index) {
+        return highs.get(index);
+    }
+
+    public double low(int index) {
+        return lows.get(index);
+    }
+
+    public double volume(int index) {
+        return volumes.get(index);
+    }
+
+    @Override
+    public long firstTime() {
+        return times.get(0);
+    }
+
+    @Override
+    public long lastTime() {
+        return times.get(size - 1);
+    }
+
+    /**
+     * Поиск блока по индексу в памяти и бинарный поиск внутри одного блока колонки времени.
+     * @return индекс первой строки со временем не меньше time или size() если таких строк нет
+     */
+    @Override
+    public int ceilingIndex(long time) {
+        int block = index.blockOf(time);
+        int low = block * BLOCK_ROWS;
+        int high = Math.min(size, low + BLOCK_ROWS);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times.get(middle) < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Копирует строки [from, to) из отображенных колонок в массивы одним блочным чтением на колонку.
+     */
+    @Override
+    public ArrayMarketSeries read(int from, int to) {
+        int count = to - from;
+        long[] time = new long[count];
+        double[] high = new double[count];
+        double[] low = new double[count];
+        double[] volume = new double[count];
+        times.get(from, time);
+        highs.get(from, high);
+        lows.get(from, low);
+        volumes.get(from, volume);
+        return new ArrayMarketSeries(time, high, low, volume, 0, count);
+    }
+
+    public int append(MarketSeries series) {
+        int count = series.size();
+        long[] time = new long[count];
+        double[] high = new double[count];
+        double[] low = new double[count];
+        double[] volume = new double[count];
+        for (int i = 0; i < count; i++) {
+            time[i] = series.time(i);
+            high[i] = series.high(i);
+            low[i] = series.low(i);
+            volume[i] = series.volume(i);
+        }
+        return append(time, high, low, volume, 0, count);
+    }
+
+    /**
+     * Дописывает строки [from, to) в конец колонок.
+     * Строки с временем не больше последнего сохраненного пропускаются, чтобы колонка времени оставалась строго возрастающей.
+     * @return количество записанных строк
+     */
+    public int append(long[] time, double[] high, double[] low, double[] volume, int from, int to) {
+        if (!writable) {
+            throw new IllegalStateException("File " + path + " is opened read only");
+        }
+        while (from < to && size > 0 && time[from] <= lastTime()) {
+            from++;
+        }
+        int count = to - from;
+        if (count <= 0) {
+            return 0;
+        }
+        if (size + count > capacity) {
+            throw new IllegalStateException(String.format("File %s capacity %d exceeded", path, capacity));
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(count * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.asLongBuffer().put(time, from, count);
+            writeFully(channel, buffer, columnOffset(TIME_COLUMN, size));
+
+            buffer.clear();
+            buffer.asDoubleBuffer().put(high, from, count);
+            writeFully(channel, buffer, columnOffset(HIGH_COLUMN, size));
+
+            buffer.clear();
+            buffer.asDoubleBuffer().put(low, from, count);
+            writeFully(channel, buffer, columnOffset(LOW_COLUMN, size));
+
+            buffer.clear();
+            buffer.asDoubleBuffer().put(volume, from, count);
+            writeFully(channel, buffer, columnOffset(VOLUME_COLUMN, size));
+
+            int oldSize = size;
+            size += count;
+            for (int row = blocksCount(oldSize) * BLOCK_ROWS; row < size; row += BLOCK_ROWS) {
+                index.add(times.get(row), row);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return count;
+    }
+
+    /**
+     * Перезаписывает значения последней строки, время строки не меняется.
+     * Используется для последней незавершенной строки агрегатов, которая дополняется при следующих загрузках.
+     */
+    public void replaceLast(double high, double low, double volume) {
+        if (!writable) {
+            throw new IllegalStateException("File " + path + " is opened read only");
+        }
+        if (size == 0) {
+            throw new IllegalStateException("File " + path + " is empty");
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putDouble(0, high);
+            writeFully(channel, buffer, columnOffset(HIGH_COLUMN, size - 1));
+            buffer.clear();
+            buffer.putDouble(0, low);
+            writeFully(channel, buffer, columnOffset(LOW_COLUMN, size - 1));
+            buffer.clear();
+            buffer.putDouble(0, volume);
+            writeFully(channel, buffer, columnOffset(VOLUME_COLUMN, size - 1));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Фиксирует дописанные строки: колонки сбрасываются на диск, затем в заголовок пишется size и сбрасывается заголовок.
+     * Строки становятся видны при следующем открытии файла только после фиксации.
+     */
+    public void force() {
+        index.force();
+        try {
+            channel.force(false);
+            if (writable) {
+                writeSize();
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Записываемый файл при закрытии обновляет size в заголовке без сброса на диск
+     */
+    @Override
+    public void close() {
+        index.close();
+        try {
+            if (writable && channel.isOpen()) {
+                writeSize();
+            }
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeSize() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(0, size);
+        writeFully(channel, buffer, SIZE_OFFSET);
+    }
+
+    /**
+     * Загружает индекс блоков. Отсутствующий или отставший индекс перестраивается по колонке времени:
+     * для записываемого файла в файл индекса, для файла только на чтение - в памяти.
+     */
+    private void openIndex() {
+        Path indexPath = indexPath(path);
+        BlockIndex loaded = BlockIndex.load(indexPath, writable);
+        if (loaded != null && isValid(loaded)) {
+            index = loaded;
+            return;
+        }
+        if (loaded != null) {
+            loaded.close();
+        }
+        index = writable ? BlockIndex.create(indexPath, BLOCK_ROWS) : BlockIndex.inMemory(BLOCK_ROWS);
+        for (int row = 0; row < size; row += BLOCK_ROWS) {
+            index.add(times.get(row), row);
+        }
+    }
+
+    private boolean isValid(BlockIndex loaded) {
+        int count = loaded.count();
+        return loaded.blockRows() == BLOCK_ROWS &&
+                count == blocksCount(size) &&
+                (count == 0 || loaded.firstTime(count - 1) == times.get((count - 1) * BLOCK_ROWS));
+    }
+
+    private static int blocksCount(int rows) {
+        return (rows + BLOCK_ROWS - 1) / BLOCK_ROWS;
+    }
+
+    private void map() {
+        try {
+            times = mapColumn(TIME_COLUMN).asLongBuffer();
+            highs = mapColumn(HIGH_COLUMN).asDoubleBuffer();
+            lows = mapColumn(LOW_COLUMN).asDoubleBuffer();
+            volumes = mapColumn(VOLUME_COLUMN).asDoubleBuffer();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Колонка отображается целиком на capacity строк: записи через channel сразу видны в отображении,
+     * поэтому после дописывания перемапливать файл не нужно.
+     */
+    private ByteBuffer mapColumn(int column) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, columnOffset(column, 0), capacity * Long.BYTES);
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private long columnOffset(int column, long row) {
+        return HEADER_SIZE + (column * capacity + row) * Long.BYTES;
+    }
+
+    private static ByteBuffer readHeader(FileChannel channel, Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(header, 0);
+        if (header.getInt(MAGIC_OFFSET) != MAGIC) {
+            throw new IllegalStateException("File " + path + " is not a market data file");
+        }
+        if (header.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IllegalStateException("File " + path + " has unsupported version " + header.getInt(VERSION_OFFSET));
+        }
+        return header;
+    }
+
+    private static void writeZeroAt(FileChannel channel, long position) throws IOException {
+        writeFully(channel, ByteBuffer.allocate(1), position);
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package org.tradeapp.backtest.storage;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.tradeapp.backtest.domain.MarketSeries;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.tradeapp.backtest.constants.Settings.mapper;
+
+/**
+ * Манифест хранилища одного символа: по каждой партиции (году) время первой и последней строки, количество строк,
+ * количество отброшенных повторных секунд и список известных пропусков.
+ * <p>
+ * Манифест обновляется после каждого дописывания и сохраняется атомарно (временный файл + переименование),
+ * поэтому продолжение загрузки и поиск пропусков не требуют чтения данных.
+ * Если манифест не совпадает с заголовком файла партиции (например, после падения между записью данных и манифеста),
+ * запись партиции перестраивается одним проходом по данным.
+ */
+public class MarketDataManifest {
+
+    public static final String EXTENSION = ".manifest.json";
+
+    /**
+     * Пропуск [fromTime, toTime) - секунды, которых нет в данных
+     * @param confirmed пропуск уже запрашивался повторно и биржа данных не вернула (например, биржа не работала)
+     */
+    public record Gap(long fromTime, long toTime, boolean confirmed) {
+        public long size(long interval) {
+            return (toTime - fromTime) / interval;
+        }
+    }
+
+    public record Partition(int year, long firstTime, long lastTime, long rows, long duplicates, List<Gap> gaps) {
+
+        public static Partition empty(int year) {
+            return new Partition(year, 0L, 0L, 0L, 0L, List.of());
+        }
+
+        @JsonIgnore
+        public boolean isEmpty() {
+            return rows == 0;
+        }
+
+        /**
+         * Учитывает дописывание строк [from, to) с тем же правилом, что и {@link MarketDataFile#append}:
+         * строки со временем не больше последнего сохраненного отбрасываются как повторные.
+         * @param previousTime время последней строки перед партицией (конец предыдущего года) или null
+         */
+        public Partition appended(long[] time, int from, int to, long interval, Long previousTime) {
+            return new PartitionBuilder(this, interval, previousTime).append(time, from, to).build();
+        }
+
+        /**
+         * Учитывает повторные секунды, отброшенные до дописывания (например, при пересечении импортируемых диапазонов)
+         */
+        public Partition withDuplicates(long count) {
+            return new Partition(year, firstTime, lastTime, rows, duplicates + count, gaps);
+        }
+    }
+
+    /**
+     * Накопление записи партиции по блокам строк: пропуски собираются в один список и копируются один раз в {@link #build()},
+     * поэтому проход по партиции с большим количеством пропусков остается линейным.
+     */
+    private static final class PartitionBuilder {
+        private final int year;
+        private final long interval;
+        private final List<Gap> gaps;
+        private long first;
+        private long last;
+        private long count;
+        private long skipped;
+
+        /**
+         * @param previousTime время последней строки перед партицией (конец предыдущего года) или null
+         */
+        private PartitionBuilder(Partition partition, long interval, Long previousTime) {
+            this.year = partition.year();
+            this.interval = interval;
+            this.gaps = new ArrayList<>(partition.gaps());
+            this.first = partition.firstTime();
+            this.last = partition.isEmpty() ? (previousTime == null ? Long.MIN_VALUE : previousTime) : partition.lastTime();
+            this.count = partition.rows();
+            this.skipped = partition.duplicates();
+        }
+
+        private PartitionBuilder append(long[] time, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (time[i] <= last) {
+                    skipped++;
+                    continue;
+                }
+                if (last != Long.MIN_VALUE && time[i] - last > interval) {
+                    gaps.add(new Gap(last + interval, time[i], false));
+                }
+                if (count == 0) {
+                    first = time[i];
+                }
+                last = time[i];
+                count++;
+            }
+            return this;
+        }
+
+        private Partition build() {
+            return new Partition(year, first, count == 0 ? 0L : last, count, skipped, List.copyOf(gaps));
+        }
+    }
+
+    private record Document(String symbol, long interval, List<Partition> partitions) {  }
+
+    private final Path path;
+    private final String symbol;
+    private final long interval;
+    private final TreeMap<Integer, Partition> partitions = new TreeMap<>();
+
+    private MarketDataManifest(Path path, String symbol, long interval) {
+        this.path = path;
+        this.symbol = symbol;
+        this.interval = interval;
+    }
+
+    /**
+     * Читает манифест. Отсутствующий или поврежденный манифест считается пустым
+     * и заполняется проверкой партиций ({@link #verify}).
+     */
+    public static MarketDataManifest load(Path path, String symbol, long interval) {
+        MarketDataManifest manifest = new MarketDataManifest(path, symbol, interval);
+        if (Files.exists(path)) {
+            try {
+                Document document = mapper.readValue(path.toFile(), Document.class);
+                if (symbol.equals(document.symbol()) && interval == document.interval()) {
+                    document.partitions().forEach(partition -> manifest.partitions.put(partition.year(), partition));
+                }
+            } catch (IOException ignored) {
+                manifest.partitions.clear();
+            }
+        }
+        return manifest;
+    }
+
+    public Partition get(int year) {
+        return partitions.getOrDefault(year, Partition.empty(year));
+    }
+
+    /**
+     * Последняя непустая партиция или null
+     */
+    public Partition latest() {
+        for (Partition partition : partitions.descendingMap().values()) {
+            if (!partition.isEmpty()) {
+                return partition;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Время последней строки перед годом year (в предыдущих партициях) или null
+     */
+    public Long lastTimeBefore(int year) {
+        for (Partition partition : partitions.headMap(year, false).descendingMap().values()) {
+            if (!partition.isEmpty()) {
+                return partition.lastTime();
+            }
+        }
+        return null;
+    }
+
+    public Collection<Partition> partitions() {
+        return List.copyOf(partitions.values());
+    }
+
+    public void put(Partition partition) {
+        partitions.put(partition.year(), partition);
+    }
+
+    public void remove(int year) {
+        partitions.remove(year);
+    }
+
+    /**
+     * Проверяет запись партиции по заголовку файла (количество строк и время последней строки) за константное время.
+     * Если запись отстала от файла (падение между фиксацией данных и сохранением манифеста), дописываются только новые строки.
+     * Не совпавшая иначе или отсутствующая запись перестраивается полным проходом по данным партиции.
+     * @return true если запись пришлось перестроить
+     */
+    public boolean verify(int year, MarketDataPartition data) {
+        Partition partition = partitions.get(year);
+        if (data == null || data.isEmpty()) {
+            if (partition != null && !partition.isEmpty()) {
+                partitions.remove(year);
+                return true;
+            }
+            return false;
+        }
+        if (partition != null && partition.rows() == data.size() &&
+                partition.firstTime() == data.firstTime() && partition.lastTime() == data.lastTime()) {
+            return false;
+        }
+        if (isPrefixOf(partition, data)) {
+            put(scanTail(partition, data));
+            return true;
+        }
+        put(scan(year, data, partition));
+        return true;
+    }
+
+    /**
+     * Запись описывает первые строки файла: совпадают первая строка и строка с номером последней записанной
+     */
+    private static boolean isPrefixOf(Partition partition, MarketDataPartition data) {
+        if (partition == null || partition.isEmpty() || partition.rows() >= data.size() || partition.firstTime() != data.firstTime()) {
+            return false;
+        }
+        int last = (int) partition.rows() - 1;
+        return data.read(last, last + 1).firstTime() == partition.lastTime();
+    }
+
+    private Partition scanTail(Partition partition, MarketDataPartition data) {
+        PartitionBuilder result = new PartitionBuilder(partition, interval, lastTimeBefore(partition.year()));
+        for (int from = (int) partition.rows(); from < data.size(); from += MarketDataFile.BLOCK_ROWS) {
+            MarketSeries block = data.read(from, Math.min(data.size(), from + MarketDataFile.BLOCK_ROWS));
+            long[] time = new long[block.size()];
+            for (int i = 0; i < time.length; i++) {
+                time[i] = block.time(i);
+            }
+            result.append(time, 0, time.length);
+        }
+        return result.build();
+    }
+
+    /**
+     * Полный проход по данным партиции блоками. Пропуски, которые уже были подтверждены, остаются подтвержденными.
+     * Пропуск на границе с предыдущим годом учитывается, поэтому партиции проверяются по возрастанию года.
+     */
+    public Partition scan(int year, MarketDataPartition data, Partition previous) {
+        List<Gap> confirmed = previous == null ? List.of() : previous.gaps().stream().filter(Gap::confirmed).toList();
+        PartitionBuilder builder = new PartitionBuilder(Partition.empty(year), interval, lastTimeBefore(year));
+        for (int from = 0; from < data.size(); from += MarketDataFile.BLOCK_ROWS) {
+            MarketSeries block = data.read(from, Math.min(data.size(), from + MarketDataFile.BLOCK_ROWS));
+            long[] time = new long[block.size()];
+            for (int i = 0; i < time.length; i++) {
+                time[i] = block.time(i);
+            }
+            builder.append(time, 0, time.length);
+        }
+        Partition result = builder.build();
+        long duplicates = previous == null ? 0L : previous.duplicates();
+        List<Gap> gaps = result.gaps().stream()
+                .map(gap -> confirmed.stream().anyMatch(c -> c.fromTime() <= gap.fromTime() && gap.toTime() <= c.toTime())
+                        ? new Gap(gap.fromTime(), gap.toTime(), true) : gap)
+                .toList();
+        return new Partition(year, result.firstTime(), result.lastTime(), result.rows(), duplicates, gaps);
+    }
+
+    /**
+     * Записывает манифест во временный файл, сбрасывает его на диск и атомарно заменяет им текущий
+     */
+    public void save() {
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            byte[] content = mapper.writerWithDefaultPrettyPrinter()
+                    .writeValueAsBytes(new Document(symbol, interval, List.copyOf(partitions.values())));
+            try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)) {
+                MarketDataFile.writeFully(channel, ByteBuffer.wrap(content), 0);
+                channel.force(false);
+            }
+            Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Количество неподтвержденных пропущенных секунд по партициям
+     */
+    public Map<Integer, Long> missingSeconds() {
+        TreeMap<Integer, Long> result = new TreeMap<>();
+        for (Partition partition : partitions.values()) {
+            long missing = partition.gaps().stream().filter(gap -> !gap.confirmed()).mapToLong(gap -> gap.size(interval)).sum();
+            if (missing > 0) {
+                result.put(partition.year(), missing);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,45 @@
+package org.tradeapp.backtest.storage;
+
+import org.tradeapp.backtest.domain.ArrayMarketSeries;
+
+/**
+ * Открытая на чтение партиция ежесекундных данных (обычно один год) с доступом по номеру строки.
+ * Реализации: колоночный {@link MarketDataFile} и сжатый архив {@link CompressedMarketDataFile}.
+ */
+public interface MarketDataPartition extends AutoCloseable {
+
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    long firstTime();
+
+    long lastTime();
+
+    /**
+     * @return индекс первой строки со временем не меньше time или size() если таких строк нет
+     */
+    int ceilingIndex(long time);
+
+    /**
+     * Строки [from, to) по номеру
+     */
+    ArrayMarketSeries read(int from, int to);
+
+    default ArrayMarketSeries readAll() {
+        return read(0, size());
+    }
+
+    /**
+     * Строки со временем в [fromTime, toTime)
+     */
+    default ArrayMarketSeries read(long fromTime, long toTime) {
+        int from = ceilingIndex(fromTime);
+        return read(from, Math.max(from, ceilingIndex(toTime)));
+    }
+
+    @Override
+    void close();
+}
@@ -0,0 +1,15 @@
+package org.tradeapp.backtest.storage;
+
+import org.tradeapp.backtest.domain.MarketSeries;
+
+/**
+ * Чтение произвольного окна ежесекундных данных, например для отображения в UI
+ */
+@FunctionalInterface
+public interface MarketDataReader {
+
+    /**
+     * @return строки со временем в [fromTime, toTime)
+     */
+    MarketSeries read(long fromTime, long toTime);
+}
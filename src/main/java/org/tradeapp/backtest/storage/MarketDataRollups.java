@@ -0,0 +1,143 @@
+package org.tradeapp.backtest.storage;
+
+import org.tradeapp.backtest.domain.ArrayMarketSeries;
+
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Агрегаты одной партиции (года) во всех разрешениях {@link Resolution}, которые дописываются вместе с ежесекундными данными.
+ * Каждый агрегат - обычный {@link MarketDataFile}, поэтому читается так же, как ежесекундные данные.
+ * <p>
+ * Последняя строка агрегата может быть незавершенной: следующая пачка секунд того же интервала
+ * дополняет ее на месте ({@link MarketDataFile#replaceLast}), поэтому агрегаты всегда соответствуют сохраненным секундам.
+ */
+public class MarketDataRollups implements AutoCloseable {
+
+    private static final int RECONCILE_CHUNK_ROWS = 16 * MarketDataFile.BLOCK_ROWS;
+
+    private final Map<Resolution, MarketDataFile> files = new EnumMap<>(Resolution.class);
+
+    /**
+     * @param paths файл партиции агрегата для разрешения
+     * @param secondsCapacity максимальное количество секунд в партиции
+     */
+    public static MarketDataRollups openWritable(Function<Resolution, Path> paths, long secondsCapacity) {
+        MarketDataRollups rollups = new MarketDataRollups();
+        for (Resolution resolution : Resolution.values()) {
+            long capacity = secondsCapacity / (resolution.mills() / 1000L);
+            rollups.files.put(resolution, MarketDataFile.openWritable(paths.apply(resolution), capacity));
+        }
+        return rollups;
+    }
+
+    public MarketDataFile get(Resolution resolution) {
+        return files.get(resolution);
+    }
+
+    /**
+     * Добавляет ежесекундные строки [from, to) во все агрегаты.
+     * Передавать нужно только строки, которые действительно записаны в ежесекундный файл, иначе объем посчитается дважды.
+     */
+    public void append(long[] time, double[] high, double[] low, double[] volume, int from, int to) {
+        for (var entry : files.entrySet()) {
+            append(entry.getValue(), entry.getKey(), time, high, low, volume, from, to);
+        }
+    }
+
+    /**
+     * Сверяет хвост агрегатов с ежесекундными данными партиции: последняя (возможно незавершенная) строка каждого агрегата
+     * пересчитывается по секундам ее интервала, секунды после нее дописываются.
+     * Для актуальных агрегатов это чтение одного интервала, для пустых - построение по всей партиции.
+     * Так агрегаты восстанавливаются после падения между записью секунд и агрегатов.
+     */
+    public void reconcile(MarketDataPartition seconds) {
+        for (var entry : files.entrySet()) {
+            Resolution resolution = entry.getKey();
+            MarketDataFile file = entry.getValue();
+            long start = Long.MIN_VALUE;
+            if (!file.isEmpty()) {
+                long bucket = file.lastTime();
+                ArrayMarketSeries rows = seconds.read(bucket, bucket + resolution.mills());
+                if (!rows.isEmpty()) {
+                    double high = rows.high(0);
+                    double low = rows.low(0);
+                    double volume = 0.;
+                    for (int i = 0; i < rows.size(); i++) {
+                        high = Math.max(high, rows.high(i));
+                        low = Math.min(low, rows.low(i));
+                        volume += rows.volume(i);
+                    }
+                    file.replaceLast(high, low, volume);
+                }
+                start = bucket + resolution.mills();
+            }
+            for (int from = seconds.ceilingIndex(start); from < seconds.size(); from += RECONCILE_CHUNK_ROWS) {
+                ArrayMarketSeries chunk = seconds.read(from, Math.min(seconds.size(), from + RECONCILE_CHUNK_ROWS));
+                long[] time = new long[chunk.size()];
+                double[] high = new double[chunk.size()];
+                double[] low = new double[chunk.size()];
+                double[] volume = new double[chunk.size()];
+                for (int i = 0; i < chunk.size(); i++) {
+                    time[i] = chunk.time(i);
+                    high[i] = chunk.high(i);
+                    low[i] = chunk.low(i);
+                    volume[i] = chunk.volume(i);
+                }
+                append(file, resolution, time, high, low, volume, 0, chunk.size());
+            }
+        }
+    }
+
+    /**
+     * Строки агрегируются в массивы интервалов; первый интервал, если он совпадает с последней строкой файла,
+     * сливается с ней, остальные дописываются.
+     */
+    private static void append(MarketDataFile file, Resolution resolution,
+                               long[] time, double[] high, double[] low, double[] volume, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int capacity = (int) Math.min(to - from, (time[to - 1] - time[from]) / resolution.mills() + 2);
+        long[] bucketTime = new long[capacity];
+        double[] bucketHigh = new double[capacity];
+        double[] bucketLow = new double[capacity];
+        double[] bucketVolume = new double[capacity];
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            long bucket = resolution.bucketOf(time[i]);
+            if (count > 0 && bucketTime[count - 1] == bucket) {
+                bucketHigh[count - 1] = Math.max(bucketHigh[count - 1], high[i]);
+                bucketLow[count - 1] = Math.min(bucketLow[count - 1], low[i]);
+                bucketVolume[count - 1] += volume[i];
+            } else {
+                bucketTime[count] = bucket;
+                bucketHigh[count] = high[i];
+                bucketLow[count] = low[i];
+                bucketVolume[count] = volume[i];
+                count++;
+            }
+        }
+
+        int first = 0;
+        if (!file.isEmpty() && file.lastTime() == bucketTime[0]) {
+            int last = file.size() - 1;
+            file.replaceLast(Math.max(file.high(last), bucketHigh[0]),
+                    Math.min(file.low(last), bucketLow[0]),
+                    file.volume(last) + bucketVolume[0]);
+            first = 1;
+        }
+        file.append(bucketTime, bucketHigh, bucketLow, bucketVolume, first, count);
+    }
+
+    public void force() {
+        files.values().forEach(MarketDataFile::force);
+    }
+
+    @Override
+    public void close() {
+        files.values().forEach(MarketDataFile::close);
+    }
+}
@@ -0,0 +1,105 @@
+package org.tradeapp.backtest.storage;
+
+import org.tradeapp.backtest.domain.MarketSeries;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Непрерывное чтение диапазона, который охватывает несколько партиций (годов).
+ * Пока проигрывается текущая партиция, следующая открывается и отображается на фоновом потоке,
+ * поэтому на границе года нет простоя на чтение.
+ */
+public class PartitionedMarketDataCursor implements MarketDataCursor {
+
+    private final List<Supplier<MarketDataCursor>> partitions;
+    private final long fromTime;
+    private final long toTime;
+    private final ExecutorService prefetch = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "market-data-partition-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private int nextIndex = 0;
+    private MarketDataCursor current;
+    private Future<MarketDataCursor> pending;
+
+    /**
+     * @param partitions открытие курсоров партиций по порядку; supplier может вернуть null, если данных нет
+     */
+    public PartitionedMarketDataCursor(List<Supplier<MarketDataCursor>> partitions, long fromTime, long toTime) {
+        this.partitions = partitions;
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+        this.pending = openNext();
+    }
+
+    @Override
+    public long fromTime() {
+        return fromTime;
+    }
+
+    @Override
+    public long toTime() {
+        return toTime;
+    }
+
+    @Override
+    public MarketSeries next() {
+        while (true) {
+            if (current != null) {
+                MarketSeries chunk = current.next();
+                if (chunk != null) {
+                    return chunk;
+                }
+                current.close();
+                current = null;
+            }
+            if (pending == null) {
+                return null;
+            }
+            current = await(pending);
+            pending = openNext();
+        }
+    }
+
+    @Override
+    public void close() {
+        prefetch.shutdown();
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        if (pending != null) {
+            MarketDataCursor next = await(pending);
+            if (next != null) {
+                next.close();
+            }
+            pending = null;
+        }
+    }
+
+    private Future<MarketDataCursor> openNext() {
+        if (nextIndex >= partitions.size()) {
+            return null;
+        }
+        Supplier<MarketDataCursor> partition = partitions.get(nextIndex++);
+        return prefetch.submit(partition::get);
+    }
+
+    private static MarketDataCursor await(Future<MarketDataCursor> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.tradeapp.backtest.storage;
+
+/**
+ * Разрешение агрегированных рядов (rollup), которые строятся из ежесекундных данных при загрузке.
+ * Строка агрегата начинается на границе интервала (как open time свечи Binance):
+ * high - максимум, low - минимум, volume - сумма ежесекундных строк интервала.
+ */
+public enum Resolution {
+    SECONDS_15("15s", 15_000L),
+    MINUTE_1("1m", 60_000L),
+    MINUTES_15("15m", 15 * 60_000L),
+    HOUR_1("1h", 60 * 60_000L);
+
+    private final String suffix;
+    private final long mills;
+
+    Resolution(String suffix, long mills) {
+        this.suffix = suffix;
+        this.mills = mills;
+    }
+
+    /**
+     * Часть имени файла партиции, совпадает с обозначением интервала Binance
+     */
+    public String suffix() {
+        return suffix;
+    }
+
+    public long mills() {
+        return mills;
+    }
+
+    /**
+     * Начало интервала, в который попадает time
+     */
+    public long bucketOf(long time) {
+        return Math.floorDiv(time, mills) * mills;
+    }
+}
@@ -0,0 +1,41 @@
+package org.tradeapp.backtest.storage;
+
+import org.tradeapp.backtest.domain.MarketSeries;
+
+/**
+ * Курсор по уже загруженному в память ряду: отдает весь диапазон одним блоком.
+ */
+public class SeriesMarketDataCursor implements MarketDataCursor {
+
+    private final long fromTime;
+    private final long toTime;
+    private MarketSeries series;
+
+    public SeriesMarketDataCursor(MarketSeries series, long fromTime, long toTime) {
+        this.series = series.subRange(fromTime, toTime);
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+    }
+
+    @Override
+    public long fromTime() {
+        return fromTime;
+    }
+
+    @Override
+    public long toTime() {
+        return toTime;
+    }
+
+    @Override
+    public MarketSeries next() {
+        MarketSeries result = series;
+        series = null;
+        return result == null || result.isEmpty() ? null : result;
+    }
+
+    @Override
+    public void close() {
+        series = null;
+    }
+}
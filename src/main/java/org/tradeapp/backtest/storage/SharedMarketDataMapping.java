@@ -0,0 +1,102 @@
+package org.tradeapp.backtest.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Отображение файла партиции в память, общее для всех потоков JVM.
+ * <p>
+ * Бинарная партиция отображается как есть. Сжатый архив один раз распаковывается во временный бинарный файл рядом с архивом,
+ * который отображается и сразу удаляется: данные остаются в page cache и при нехватке памяти вытесняются ядром,
+ * а не занимают heap.
+ * <p>
+ * Отображение закрывается, когда его освобождает последний пользователь. Если файл партиции изменился после отображения,
+ * следующий пользователь получает новое отображение, старое остается у текущих пользователей.
+ */
+final class SharedMarketDataMapping {
+
+    private static final int UNPACK_CHUNK_ROWS = 16 * MarketDataFile.BLOCK_ROWS;
+    private static final Map<Path, SharedMarketDataMapping> MAPPINGS = new HashMap<>();
+
+    private final Path path;
+    private final FileTime modified;
+    private final MarketDataFile file;
+    private int references = 0;
+
+    private SharedMarketDataMapping(Path path, FileTime modified, MarketDataFile file) {
+        this.path = path;
+        this.modified = modified;
+        this.file = file;
+    }
+
+    static SharedMarketDataMapping acquire(Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        synchronized (MAPPINGS) {
+            FileTime modified = lastModified(key);
+            SharedMarketDataMapping mapping = MAPPINGS.get(key);
+            if (mapping == null || !mapping.modified.equals(modified)) {
+                mapping = new SharedMarketDataMapping(key, modified, open(key));
+                MAPPINGS.put(key, mapping);
+            }
+            mapping.references++;
+            return mapping;
+        }
+    }
+
+    MarketDataFile file() {
+        return file;
+    }
+
+    void release() {
+        synchronized (MAPPINGS) {
+            if (--references == 0) {
+                MAPPINGS.remove(path, this);
+                file.close();
+            }
+        }
+    }
+
+    private static MarketDataFile open(Path path) {
+        if (!path.getFileName().toString().endsWith(CompressedMarketDataFile.EXTENSION)) {
+            return MarketDataFile.openReadOnly(path);
+        }
+        try (CompressedMarketDataFile archive = CompressedMarketDataFile.open(path)) {
+            Path unpackedPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".mapped.tmp");
+            Files.delete(unpackedPath);
+            try (MarketDataFile unpacked = MarketDataFile.openWritable(unpackedPath, Math.max(1, archive.size()))) {
+                for (int from = 0; from < archive.size(); from += UNPACK_CHUNK_ROWS) {
+                    unpacked.append(archive.read(from, Math.min(archive.size(), from + UNPACK_CHUNK_ROWS)));
+                }
+            }
+            MarketDataFile file = MarketDataFile.openReadOnly(unpackedPath);
+            delete(MarketDataFile.indexPath(unpackedPath));
+            delete(unpackedPath);
+            return file;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Удаляет распакованный файл после отображения. Если система не дает удалить отображенный файл, он удаляется при выходе.
+     */
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            path.toFile().deleteOnExit();
+        }
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.tradeapp.backtest.storage;
+
+import org.tradeapp.backtest.domain.ArrayMarketSeries;
+import org.tradeapp.backtest.domain.MarketSeries;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Промежуточный сегмент загрузки: скачанные строки сначала дописываются сюда, а не в партиции года.
+ * <p>
+ * Фиксация в три шага:
+ * <li> {@link #seal()} сбрасывает сегмент на диск и атомарно переименовывает staging в pending</li>
+ * <li> загрузчик переносит строки pending в партиции, фиксирует партиции и сохраняет манифест - точку продолжения
+ *      (время последней зафиксированной строки)</li>
+ * <li> {@link #committed()} удаляет pending</li>
+ * <p>
+ * После падения staging с незафиксированными строками удаляется (они скачиваются заново от точки продолжения),
+ * а существующий pending переносится в партиции повторно: перенос идемпотентен, потому что строки не новее
+ * последней сохраненной пропускаются. Партиция года при этом никогда не содержит недописанных строк.
+ */
+public class StagingSegment implements AutoCloseable {
+
+    public static final String STAGING_EXTENSION = ".staging" + MarketDataFile.EXTENSION;
+    public static final String PENDING_EXTENSION = ".pending" + MarketDataFile.EXTENSION;
+
+    private final Path stagingPath;
+    private final Path pendingPath;
+    private final long capacity;
+    private MarketDataFile file;
+
+    private StagingSegment(Path stagingPath, Path pendingPath, long capacity) {
+        this.stagingPath = stagingPath;
+        this.pendingPath = pendingPath;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Открывает сегмент, оставшийся после прошлой загрузки staging удаляется
+     * @param basePath путь хранилища символа без расширения
+     * @param capacity максимум строк в сегменте между фиксациями
+     */
+    public static StagingSegment open(String basePath, long capacity) {
+        StagingSegment segment = new StagingSegment(Path.of(basePath + STAGING_EXTENSION), Path.of(basePath + PENDING_EXTENSION), capacity);
+        delete(segment.stagingPath);
+        return segment;
+    }
+
+    /**
+     * Строки зафиксированного, но еще не перенесенного в партиции сегмента
+     * @return null если такого сегмента нет
+     */
+    public ArrayMarketSeries pending() {
+        if (!Files.exists(pendingPath)) {
+            return null;
+        }
+        try (MarketDataFile pending = MarketDataFile.openReadOnly(pendingPath)) {
+            return pending.readAll();
+        }
+    }
+
+    public int size() {
+        return file == null ? 0 : file.size();
+    }
+
+    /**
+     * Поместится ли еще rows строк до фиксации
+     */
+    public boolean hasRoom(int rows) {
+        return size() + rows <= capacity;
+    }
+
+    public void append(MarketSeries rows) {
+        if (file == null) {
+            delete(stagingPath);
+            file = MarketDataFile.openWritable(stagingPath, capacity);
+        }
+        file.append(rows);
+    }
+
+    /**
+     * Сбрасывает сегмент на диск и атомарно переименовывает его в pending.
+     * @return строки сегмента для переноса в партиции
+     */
+    public ArrayMarketSeries seal() {
+        if (file == null) {
+            return ArrayMarketSeries.EMPTY;
+        }
+        file.force();
+        file.close();
+        file = null;
+        try {
+            Files.deleteIfExists(MarketDataFile.indexPath(stagingPath));
+            Files.move(stagingPath, pendingPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return pending();
+    }
+
+    /**
+     * Строки pending перенесены в партиции и зафиксированы
+     */
+    public void committed() {
+        delete(pendingPath);
+    }
+
+    /**
+     * Незафиксированные строки отбрасываются, pending остается для повторного переноса
+     */
+    @Override
+    public void close() {
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+        delete(stagingPath);
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(MarketDataFile.indexPath(path));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
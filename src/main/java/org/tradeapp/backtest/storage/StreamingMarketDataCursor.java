@@ -0,0 +1,87 @@
+package org.tradeapp.backtest.storage;
+
+import org.tradeapp.backtest.domain.ArrayMarketSeries;
+import org.tradeapp.backtest.domain.MarketSeries;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Потоковое чтение партиции блоками фиксированного размера.
+ * Следующий блок копируется из отображенного файла (или декодируется из сжатого архива) на фоновом потоке, пока текущий проигрывается,
+ * поэтому в памяти одновременно не больше двух блоков независимо от длины истории.
+ */
+public class StreamingMarketDataCursor implements MarketDataCursor {
+
+    private final MarketDataPartition file;
+    private final long fromTime;
+    private final long toTime;
+    private final int chunkSize;
+    private final int end;
+    private int position;
+
+    private final ExecutorService readAhead = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "market-data-read-ahead");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<ArrayMarketSeries> pending;
+
+    /**
+     * Курсор становится владельцем файла и закрывает его в {@link #close()}
+     */
+    public StreamingMarketDataCursor(MarketDataPartition file, long fromTime, long toTime, int chunkSize) {
+        this.file = file;
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+        this.chunkSize = chunkSize;
+        this.position = file.ceilingIndex(fromTime);
+        this.end = Math.max(position, file.ceilingIndex(toTime));
+        this.pending = readNext();
+    }
+
+    @Override
+    public long fromTime() {
+        return fromTime;
+    }
+
+    @Override
+    public long toTime() {
+        return toTime;
+    }
+
+    @Override
+    public MarketSeries next() {
+        if (pending == null) {
+            return null;
+        }
+        try {
+            ArrayMarketSeries chunk = pending.get();
+            pending = readNext();
+            return chunk;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        readAhead.shutdownNow();
+        file.close();
+    }
+
+    private Future<ArrayMarketSeries> readNext() {
+        if (position >= end) {
+            return null;
+        }
+        int from = position;
+        int to = Math.min(end, position + chunkSize);
+        position = to;
+        return readAhead.submit(() -> file.read(from, to));
+    }
+}
@@ -0,0 +1,273 @@
+package org.tradeapp.backtest.storage;
+
+import org.tradeapp.backtest.domain.ArrayMarketSeries;
+import org.tradeapp.backtest.domain.MarketSeries;
+import org.tradeapp.backtest.domain.MarketSeriesBuilder;
+
+import java.io.IOException;
+import java.io.Serial;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Параллельное чтение текстовых ежесекундных данных (CSV без заголовка).
+ * <p>
+ * Файл делится на диапазоны байт по границам строк, каждый диапазон разбирается на потоке fork-join пула
+ * без создания строк. Так как время в файле уже отсортировано, результаты диапазонов просто склеиваются по порядку,
+ * строки с повторяющимся или убывающим временем отбрасываются.
+ */
+public class TextMarketDataReader {
+
+    /**
+     * Расположение колонок в строке
+     * @param fields количество полей в строке, строки с другим количеством полей пропускаются
+     */
+    public record Layout(int fields, int time, int high, int low, int volume) {
+        /**
+         * Старый формат FileMarketDataLoader: time,high,low,volume
+         */
+        public static final Layout MARKET_DATA = new Layout(4, 0, 1, 2, 3);
+        /**
+         * Формат архивов Binance public data: open_time,open,high,low,close,volume,close_time,...
+         */
+        public static final Layout BINANCE_KLINES = new Layout(12, 0, 2, 3, 5);
+    }
+
+    private static final int LEAF_SIZE = 8 * 1024 * 1024;
+    private static final int BOUNDARY_SCAN_SIZE = 4096;
+    private static final int AVERAGE_LINE_SIZE = 40;
+
+    private final Source source;
+    private final Layout layout;
+
+    private TextMarketDataReader(Source source, Layout layout) {
+        this.source = source;
+        this.layout = layout;
+    }
+
+    public static TextMarketDataReader of(Path path, Layout layout) {
+        return new TextMarketDataReader(new FileSource(path), layout);
+    }
+
+    public static TextMarketDataReader of(byte[] bytes, Layout layout) {
+        return new TextMarketDataReader(new BytesSource(bytes), layout);
+    }
+
+    /**
+     * Разобранные диапазоны в порядке следования в файле
+     */
+    public List<ArrayMarketSeries> readChunks() {
+        try {
+            if (source.size() == 0) {
+                return List.of();
+            }
+            List<ArrayMarketSeries> chunks = ForkJoinPool.commonPool().invoke(new ParseTask(this, 0, source.size()));
+            return chunks.stream().filter(chunk -> !chunk.isEmpty()).toList();
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Весь файл одним рядом
+     */
+    public ArrayMarketSeries read() {
+        List<ArrayMarketSeries> chunks = readChunks();
+        int size = chunks.stream().mapToInt(MarketSeries::size).sum();
+        MarketSeriesBuilder builder = new MarketSeriesBuilder(size);
+        for (ArrayMarketSeries chunk : chunks) {
+            int from = builder.size() == 0 ? 0 : chunk.ceilingIndex(builder.lastTime() + 1);
+            builder.addAll(chunk.slice(from, chunk.size()));
+        }
+        return builder.build();
+    }
+
+    private static class ParseTask extends RecursiveTask<List<ArrayMarketSeries>> {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final transient TextMarketDataReader reader;
+        private final long from;
+        private final long to;
+
+        private ParseTask(TextMarketDataReader reader, long from, long to) {
+            this.reader = reader;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<ArrayMarketSeries> compute() {
+            long middle = to - from <= LEAF_SIZE ? to : reader.source.lineStart(from + (to - from) / 2, to);
+            if (middle >= to) {
+                List<ArrayMarketSeries> result = new ArrayList<>(1);
+                result.add(reader.parse(reader.source.range(from, to)));
+                return result;
+            }
+            ParseTask left = new ParseTask(reader, from, middle);
+            ParseTask right = new ParseTask(reader, middle, to);
+            right.fork();
+            List<ArrayMarketSeries> result = left.compute();
+            result.addAll(right.join());
+            return result;
+        }
+    }
+
+    /**
+     * Разбор целых строк диапазона. Строки заголовка и незавершенная последняя строка файла отбрасываются.
+     * Диапазоны, кроме последнего, заканчиваются сразу после '\n', поэтому строка без '\n' может быть только
+     * оборванным концом файла (например, после падения записи посреди поля volume) и не разбирается.
+     */
+    private ArrayMarketSeries parse(ByteBuffer buffer) {
+        MarketSeriesBuilder builder = new MarketSeriesBuilder(buffer.limit() / AVERAGE_LINE_SIZE + 1);
+        int[] fieldStarts = new int[layout.fields() + 1];
+        int limit = buffer.limit();
+        int lineStart = 0;
+        long lastTime = Long.MIN_VALUE;
+        while (lineStart < limit) {
+            int fields = 0;
+            int position = lineStart;
+            fieldStarts[0] = lineStart;
+            int lineEnd = -1;
+            for (; position < limit; position++) {
+                byte symbol = buffer.get(position);
+                if (symbol == '\n') {
+                    lineEnd = position;
+                    break;
+                }
+                if (symbol == ',') {
+                    fields++;
+                    if (fields < fieldStarts.length) {
+                        fieldStarts[fields] = position + 1;
+                    }
+                }
+            }
+            if (lineEnd == -1) {
+                break;
+            }
+            int contentEnd = lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            if (fields + 1 == layout.fields() && isDigit(buffer.get(fieldStarts[layout.time()]))) {
+                long time = AsciiNumbers.parseLong(buffer, fieldStarts[layout.time()], fieldEnd(fieldStarts, layout.time(), contentEnd));
+                if (time > lastTime) {
+                    builder.add(time,
+                            AsciiNumbers.parseDouble(buffer, fieldStarts[layout.high()], fieldEnd(fieldStarts, layout.high(), contentEnd)),
+                            AsciiNumbers.parseDouble(buffer, fieldStarts[layout.low()], fieldEnd(fieldStarts, layout.low(), contentEnd)),
+                            AsciiNumbers.parseDouble(buffer, fieldStarts[layout.volume()], fieldEnd(fieldStarts, layout.volume(), contentEnd)));
+                    lastTime = time;
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        return builder.build();
+    }
+
+    private static boolean isDigit(byte symbol) {
+        return symbol >= '0' && symbol <= '9';
+    }
+
+    private int fieldEnd(int[] fieldStarts, int field, int contentEnd) {
+        return field + 1 < layout.fields() ? fieldStarts[field + 1] - 1 : contentEnd;
+    }
+
+    private interface Source {
+        long size();
+
+        ByteBuffer range(long from, long to);
+
+        byte get(long position);
+
+        default void close() {  }
+
+        /**
+         * Начало первой строки, которая начинается не раньше position
+         */
+        default long lineStart(long position, long limit) {
+            for (long i = position; i < limit; i++) {
+                if (get(i - 1) == '\n') {
+                    return i;
+                }
+            }
+            return limit;
+        }
+    }
+
+    private static class FileSource implements Source {
+        private final FileChannel channel;
+        private final long size;
+
+        private FileSource(Path path) {
+            try {
+                this.channel = FileChannel.open(path, StandardOpenOption.READ);
+                this.size = channel.size();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public ByteBuffer range(long from, long to) {
+            try {
+                return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public byte get(long position) {
+            return range(position, Math.min(size, position + 1)).get(0);
+        }
+
+        @Override
+        public long lineStart(long position, long limit) {
+            while (position < limit) {
+                long scanFrom = position - 1;
+                ByteBuffer window = range(scanFrom, Math.min(limit, scanFrom + BOUNDARY_SCAN_SIZE));
+                for (int i = 0; i < window.limit(); i++) {
+                    if (window.get(i) == '\n') {
+                        return scanFrom + i + 1;
+                    }
+                }
+                position = scanFrom + window.limit() + 1;
+            }
+            return limit;
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private record BytesSource(byte[] bytes) implements Source {
+        @Override
+        public long size() {
+            return bytes.length;
+        }
+
+        @Override
+        public ByteBuffer range(long from, long to) {
+            return ByteBuffer.wrap(bytes, (int) from, (int) (to - from)).slice();
+        }
+
+        @Override
+        public byte get(long position) {
+            return bytes[(int) position];
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.tradeapp.backtest.storage;
+
+import org.tradeapp.backtest.domain.ExecutionType;
+import org.tradeapp.backtest.domain.Imbalance;
+import org.tradeapp.backtest.domain.MarketEntry;
+import org.tradeapp.backtest.domain.Order;
+import org.tradeapp.backtest.domain.OrderType;
+import org.tradeapp.backtest.domain.Position;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Журнал сделок и имбалансов бэктеста, открытый на чтение через отображение файла в память.
+ * Журнал пишется {@link TradeJournalWriter} по мере событий.
+ * <p>
+ * Формат файла: заголовок {@link #HEADER_SIZE} байт (magic, версия, размер записи), затем записи фиксированного размера
+ * {@link #RECORD_SIZE} байт (little-endian): вид записи, сторона, флаг, id, id связанной записи,
+ * {@link #TIMES_COUNT} значений времени и {@link #VALUES_COUNT} значений double.
+ * <li> {@link Kind#IMBALANCE} - сторона: тип имбаланса, флаг: имбаланс завершен; время: начало, конец, завершение;
+ * значения: цена начала, цена конца, вычисленная длительность. Запись с тем же id заменяет предыдущую</li>
+ * <li> {@link Kind#ORDER} - сторона: тип ордера, флаг: тип исполнения, связанная запись: имбаланс;
+ * время: создание; значения: сумма, тейк профит, стоп лосс, цена исполнения</li>
+ * <li> {@link Kind#POSITION_OPEN} - связанная запись: ордер; время: открытие; значения: цена открытия</li>
+ * <li> {@link Kind#POSITION_CLOSE} - время: закрытие; значения: цена закрытия, стоп лосс на момент закрытия</li>
+ * <p>
+ * Количество записей определяется размером файла, неполная последняя запись (падение во время записи) не читается.
+ */
+public class TradeJournal implements AutoCloseable {
+
+    public static final String EXTENSION = ".journal";
+    /**
+     * Каталог журналов бэктеста, файл символа - RESULTS_PATH + symbol + EXTENSION
+     */
+    public static final String RESULTS_PATH = System.getProperty("user.dir") + "/output/results/";
+
+    public enum Kind { IMBALANCE, ORDER, POSITION_OPEN, POSITION_CLOSE }
+
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 80;
+    static final int TIMES_COUNT = 3;
+    static final int VALUES_COUNT = 5;
+    static final int NO_REFERENCE = -1;
+
+    static final int MAGIC = 0x544A524E; // "TJRN"
+    static final int VERSION = 1;
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int RECORD_SIZE_OFFSET = 8;
+
+    static final int KIND_OFFSET = 0;
+    static final int SIDE_OFFSET = 1;
+    static final int FLAG_OFFSET = 2;
+    static final int ID_OFFSET = 4;
+    static final int REFERENCE_OFFSET = 8;
+    static final int TIMES_OFFSET = 16;
+    static final int VALUES_OFFSET = TIMES_OFFSET + TIMES_COUNT * Long.BYTES;
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private final FileChannel channel;
+    private final ByteBuffer data;
+    private final int size;
+
+    private TradeJournal(FileChannel channel, ByteBuffer data) {
+        this.channel = channel;
+        this.data = data;
+        this.size = (data.limit() - HEADER_SIZE) / RECORD_SIZE;
+    }
+
+    public static TradeJournal open(Path path) {
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            if (channel.size() > Integer.MAX_VALUE) {
+                channel.close();
+                throw new IllegalStateException("File " + path + " is too large");
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            if (data.limit() < HEADER_SIZE || data.getInt(MAGIC_OFFSET) != MAGIC) {
+                channel.close();
+                throw new IllegalStateException("File " + path + " is not a trade journal");
+            }
+            if (data.getInt(VERSION_OFFSET) != VERSION || data.getInt(RECORD_SIZE_OFFSET) != RECORD_SIZE) {
+                channel.close();
+                throw new IllegalStateException("File " + path + " has unsupported version " + data.getInt(VERSION_OFFSET));
+            }
+            return new TradeJournal(channel, data);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Kind kind(int record) {
+        return KINDS[data.get(offset(record) + KIND_OFFSET)];
+    }
+
+    public int side(int record) {
+        return data.get(offset(record) + SIDE_OFFSET);
+    }
+
+    public int flag(int record) {
+        return data.get(offset(record) + FLAG_OFFSET);
+    }
+
+    public int id(int record) {
+        return data.getInt(offset(record) + ID_OFFSET);
+    }
+
+    public int reference(int record) {
+        return data.getInt(offset(record) + REFERENCE_OFFSET);
+    }
+
+    public long time(int record, int slot) {
+        return data.getLong(offset(record) + TIMES_OFFSET + slot * Long.BYTES);
+    }
+
+    public double value(int record, int slot) {
+        return data.getDouble(offset(record) + VALUES_OFFSET + slot * Double.BYTES);
+    }
+
+    /**
+     * Завершенные имбалансы в порядке завершения
+     */
+    public List<Imbalance> imbalances() {
+        Map<Integer, Imbalance> imbalances = readImbalances();
+        Set<Integer> completed = new LinkedHashSet<>();
+        for (int record = 0; record < size; record++) {
+            if (kind(record) == Kind.IMBALANCE && flag(record) != 0) {
+                completed.add(id(record));
+            }
+        }
+        return completed.stream().map(imbalances::get).collect(Collectors.toList());
+    }
+
+    /**
+     * Позиции в порядке открытия вместе с ордерами и имбалансами, на основе которых они открыты.
+     * Позиции без записи о закрытии остаются открытыми.
+     */
+    public List<Position> positions() {
+        Map<Integer, Imbalance> imbalances = readImbalances();
+        Map<Integer, Order> orders = new HashMap<>();
+        Map<Integer, Position> positions = new HashMap<>();
+        List<Position> result = new ArrayList<>();
+        for (int record = 0; record < size; record++) {
+            switch (kind(record)) {
+                case ORDER -> {
+                    Order order = new Order();
+                    order.setType(OrderType.values()[side(record)]);
+                    order.setExecutionType(ExecutionType.values()[flag(record)]);
+                    order.setImbalance(imbalances.get(reference(record)));
+                    order.setCreateTime(time(record, 0));
+                    order.setMoneyAmount(value(record, 0));
+                    order.setTP_SL(value(record, 1), value(record, 2));
+                    order.setExecutionPrice(value(record, 3));
+                    orders.put(id(record), order);
+                }
+                case POSITION_OPEN -> {
+                    Order order = orders.get(reference(record));
+                    order.fill();
+                    double openPrice = value(record, 0);
+                    Position position = new Position(order, new MarketEntry(openPrice, openPrice, 0.), time(record, 0));
+                    positions.put(id(record), position);
+                    result.add(position);
+                }
+                case POSITION_CLOSE -> {
+                    Position position = positions.get(id(record));
+                    position.setStopLossPrice(value(record, 1));
+                    position.close(time(record, 0), value(record, 0));
+                }
+                case IMBALANCE -> {  }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Последнее состояние каждого имбаланса по id
+     */
+    private Map<Integer, Imbalance> readImbalances() {
+        Map<Integer, Imbalance> imbalances = new LinkedHashMap<>();
+        for (int record = 0; record < size; record++) {
+            if (kind(record) != Kind.IMBALANCE) {
+                continue;
+            }
+            Imbalance imbalance = imbalances.get(id(record));
+            if (imbalance == null) {
+                imbalance = Imbalance.of(0L, 0., 0L, 0., Imbalance.Type.values()[side(record)]);
+                imbalances.put(id(record), imbalance);
+            }
+            imbalance.setStartTime(time(record, 0));
+            imbalance.setEndTime(time(record, 1));
+            imbalance.setCompleteTime(time(record, 2));
+            imbalance.setStartPrice(value(record, 0));
+            imbalance.setEndPrice(value(record, 1));
+            imbalance.setComputedDuration(value(record, 2));
+        }
+        return imbalances;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static int offset(int record) {
+        return HEADER_SIZE + record * RECORD_SIZE;
+    }
+}
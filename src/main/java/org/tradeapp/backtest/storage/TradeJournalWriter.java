@@ -0,0 +1,143 @@
+package org.tradeapp.backtest.storage;
+
+import org.tradeapp.backtest.domain.Imbalance;
+import org.tradeapp.backtest.domain.Order;
+import org.tradeapp.backtest.domain.Position;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static org.tradeapp.backtest.storage.TradeJournal.*;
+
+/**
+ * Дописывает события бэктеста в журнал {@link TradeJournal} в момент, когда они происходят.
+ * <p>
+ * Записи копятся в буфере на {@link #BUFFER_RECORDS} записей и пишутся в конец файла одним вызовом,
+ * поэтому запись события стоит копирования 80 байт. Идентификаторы ордеров, позиций и имбалансов выдаются
+ * по порядку при первой записи объекта.
+ */
+public class TradeJournalWriter implements AutoCloseable {
+
+    private static final int BUFFER_RECORDS = 256;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_RECORDS * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final Map<Imbalance, Integer> imbalanceIds = new IdentityHashMap<>();
+    private final Map<Order, Integer> orderIds = new IdentityHashMap<>();
+    private final Map<Position, Integer> positionIds = new IdentityHashMap<>();
+    private long position;
+
+    private TradeJournalWriter(FileChannel channel, long position) {
+        this.channel = channel;
+        this.position = position;
+    }
+
+    /**
+     * Создает новый журнал, существующий файл перезаписывается
+     */
+    public static TradeJournalWriter create(Path path) {
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC_OFFSET, MAGIC);
+            header.putInt(VERSION_OFFSET, VERSION);
+            header.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+            MarketDataFile.writeFully(channel, header, 0);
+            return new TradeJournalWriter(channel, HEADER_SIZE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Записывает текущее состояние имбаланса. Повторная запись того же имбаланса заменяет предыдущую при чтении.
+     * @param completed имбаланс завершен
+     */
+    public void imbalance(Imbalance imbalance, boolean completed) {
+        int id = imbalanceIds.computeIfAbsent(imbalance, key -> imbalanceIds.size());
+        record(Kind.IMBALANCE, imbalance.getType().ordinal(), completed ? 1 : 0, id, NO_REFERENCE,
+                imbalance.getStartTime(), imbalance.getEndTime(), imbalance.getCompleteTime(),
+                imbalance.getStartPrice(), imbalance.getEndPrice(), imbalance.getComputedDuration(), 0., 0.);
+    }
+
+    /**
+     * Записывает созданный ордер. Имбаланс ордера, которого еще нет в журнале, записывается перед ним как незавершенный.
+     */
+    public void order(Order order) {
+        int reference = NO_REFERENCE;
+        Imbalance imbalance = order.getImbalance();
+        if (imbalance != null) {
+            if (!imbalanceIds.containsKey(imbalance)) {
+                imbalance(imbalance, false);
+            }
+            reference = imbalanceIds.get(imbalance);
+        }
+        int id = orderIds.computeIfAbsent(order, key -> orderIds.size());
+        record(Kind.ORDER, order.getType().ordinal(), order.getExecutionType().ordinal(), id, reference,
+                order.getCreateTime(), 0L, 0L,
+                order.getMoneyAmount(), order.getTakeProfitPrice(), order.getStopLossPrice(), order.getExecutionPrice(), 0.);
+    }
+
+    public void positionOpened(Position position) {
+        if (!orderIds.containsKey(position.getOrder())) {
+            order(position.getOrder());
+        }
+        int id = positionIds.computeIfAbsent(position, key -> positionIds.size());
+        record(Kind.POSITION_OPEN, 0, 0, id, orderIds.get(position.getOrder()),
+                position.getOpenTime(), 0L, 0L,
+                position.getOpenPrice(), 0., 0., 0., 0.);
+    }
+
+    public void positionClosed(Position position) {
+        record(Kind.POSITION_CLOSE, 0, 0, positionIds.get(position), NO_REFERENCE,
+                position.getCloseTime(), 0L, 0L,
+                position.getClosePrice(), position.getStopLossPrice(), 0., 0., 0.);
+    }
+
+    private void record(Kind kind, int side, int flag, int id, int reference,
+                        long time0, long time1, long time2,
+                        double value0, double value1, double value2, double value3, double value4) {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put((byte) kind.ordinal()).put((byte) side).put((byte) flag).put((byte) 0)
+                .putInt(id).putInt(reference).putInt(0)
+                .putLong(time0).putLong(time1).putLong(time2)
+                .putDouble(value0).putDouble(value1).putDouble(value2).putDouble(value3).putDouble(value4);
+    }
+
+    /**
+     * Дописывает накопленные записи в файл
+     */
+    public void flush() {
+        buffer.flip();
+        try {
+            int length = buffer.limit();
+            MarketDataFile.writeFully(channel, buffer, position);
+            position += length;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() {
+        flush();
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
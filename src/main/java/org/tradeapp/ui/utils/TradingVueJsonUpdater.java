@@ -8,11 +8,15 @@ import org.tradeapp.backtest.domain.Imbalance;
 import org.tradeapp.backtest.domain.OrderType;
 import org.tradeapp.backtest.domain.Position;
 import org.tradeapp.utils.Log;
-import org.tradeapp.backtest.domain.MarketEntry;
+import org.tradeapp.backtest.domain.MarketSeries;
+import org.tradeapp.backtest.storage.TradeJournal;
 import org.tradeapp.ui.domain.MarketKlineEntry;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -31,9 +35,6 @@ public class TradingVueJsonUpdater {
         this.filePath = filePath;
     }
 
-    private static final Serializer<List<Position>> positionSerializer = new Serializer<>("/output/results/positions/");
-    private static final Serializer<List<Imbalance>> imbalanceSerializer = new Serializer<>("/output/results/imbalances/");
-
     public void updateUiMarketData(TreeMap<Long, MarketKlineEntry> uiMarketData) {
         log.debug("ohlcv with:");
         log.debug(uiMarketData.size() + " uiMarketData");
@@ -67,7 +68,7 @@ public class TradingVueJsonUpdater {
         }
     }
 
-    public TreeMap<Long, MarketKlineEntry> updateMarketData(TreeMap<Long, MarketEntry> marketData) {
+    public TreeMap<Long, MarketKlineEntry> updateMarketData(MarketSeries marketData) {
 //        var uiMarketData = marketData
 //                .entrySet()
 //                .stream()
@@ -90,47 +91,29 @@ public class TradingVueJsonUpdater {
 //                ));
 //
         int step = 10;
-        var marketDataList = marketData.entrySet().stream().toList();
-        TreeMap<Long, MarketEntry> marketData5 = new TreeMap<>();
-        for (int i = 0; i < marketDataList.size() - step; i += step) {
-            double low = marketDataList.get(i).getValue().low();
-            double high = marketDataList.get(i).getValue().high();
+        List<MarketKlineEntry> uiMarketData = new ArrayList<>();
+        for (int i = 0; i < marketData.size() - step; i += step) {
+            double low = marketData.low(i);
+            double high = marketData.high(i);
             double volume = 0.;
             for (int j = 0; j < step; j++) {
-                low = Math.min(low, marketDataList.get(i + j).getValue().low());
-                high = Math.max(high, marketDataList.get(i + j).getValue().high());
-                volume += marketDataList.get(i + j).getValue().volume();
+                low = Math.min(low, marketData.low(i + j));
+                high = Math.max(high, marketData.high(i + j));
+                volume += marketData.volume(i + j);
             }
-            marketData5.put(marketDataList.get(i).getKey(), new MarketEntry(high, low, volume));
-        }
 
-        marketDataList = marketData5.entrySet().stream().toList();
-        List<MarketKlineEntry> uiMarketData = new ArrayList<>();
-        for (int i = 0; i < marketDataList.size(); i++) {
             MarketKlineEntry entry = new MarketKlineEntry();
-            MarketEntry currentEntry = marketDataList.get(i).getValue();
-            entry.setOpenTime(marketDataList.get(i).getKey());
-            entry.setVolume(marketDataList.get(i).getValue().volume());
-
+            entry.setOpenTime(marketData.time(i));
+            entry.setVolume(volume);
+            entry.setHighPrice(high);
+            entry.setLowPrice(low);
+            entry.setClosePrice((low + high) * 0.5);
             if (uiMarketData.isEmpty()) {
-                entry.setLowPrice(currentEntry.low());
-                entry.setHighPrice(currentEntry.high());
-                entry.setOpenPrice((currentEntry.low() + currentEntry.high()) * 0.5);
-                entry.setClosePrice((currentEntry.low() + currentEntry.high()) * 0.5);
-                uiMarketData.add(entry);
-                continue;
+                entry.setOpenPrice((low + high) * 0.5);
             } else {
-                entry.setHighPrice(currentEntry.high());
-                entry.setLowPrice(currentEntry.low());
-                entry.setOpenPrice(uiMarketData.get(i - 1).getClosePrice());
-                entry.setClosePrice((currentEntry.low() + currentEntry.high()) * 0.5);
-//                if (uiMarketData.get(i - 1).getHighPrice() < currentEntry.low()) {
-//                    entry.setClosePrice(currentEntry.high());
-//                } else if (uiMarketData.get(i - 1).getLowPrice() > currentEntry.high()) {
-//                    entry.setClosePrice(currentEntry.low());
-//                }
-                uiMarketData.add(entry);
+                entry.setOpenPrice(uiMarketData.get(uiMarketData.size() - 1).getClosePrice());
             }
+            uiMarketData.add(entry);
         }
         var result = uiMarketData.stream().collect(Collectors.toMap(
                         MarketKlineEntry::getOpenTime,
@@ -352,25 +335,24 @@ public class TradingVueJsonUpdater {
         onchart.add(segmentNodeProfitLoss);
     }
 
-    public static void serializeAll(List<Imbalance> imbalances, List<Position> positions) {
-        if (!imbalances.isEmpty()) {
-            imbalanceSerializer.serialize(imbalances);
-        }
-
-        if (!positions.isEmpty()) {
-            positionSerializer.serialize(positions);
-        }
-    }
-
+    /**
+     * Читает имбалансы или позиции из журнала бэктеста текущего символа
+     */
     @SuppressWarnings("unchecked")
     public static<T> List<T> deserialize(Class<T> clazz) {
-        if (clazz == Imbalance.class) {
-            return (List<T>) imbalanceSerializer.deserialize();
-        } else if (clazz == Position.class) {
-            return (List<T>) positionSerializer.deserialize();
-        } else {
+        Path path = Paths.get(TradeJournal.RESULTS_PATH + Log.getSymbol() + TradeJournal.EXTENSION);
+        if (!Files.exists(path)) {
             return new ArrayList<>();
         }
+        try (TradeJournal journal = TradeJournal.open(path)) {
+            if (clazz == Imbalance.class) {
+                return (List<T>) journal.imbalances();
+            } else if (clazz == Position.class) {
+                return (List<T>) journal.positions();
+            } else {
+                return new ArrayList<>();
+            }
+        }
     }
 
     private record Onchart(String name, String type, ArrayNode data, Settings settings) { }
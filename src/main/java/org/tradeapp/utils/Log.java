@@ -29,6 +29,16 @@ public class Log {
 
     public static final String LOGS_DIR_PATH = System.getProperty("user.dir") + "/output/logs/";
     private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
+    /**
+     * Символ, который обрабатывает текущий поток (по нему выбирается файл лога).
+     * Наследуется потоками, созданными из потока символа (фоновое чтение данных и т.п.).
+     */
+    private static final InheritableThreadLocal<String> CURRENT_SYMBOL = new InheritableThreadLocal<>() {
+        @Override
+        protected String initialValue() {
+            return SYMBOL;
+        }
+    };
 
     static {
         ensureLogDirectoryExists();
@@ -42,6 +52,14 @@ public class Log {
         this.path = path;
     }
 
+    public static void setSymbol(String symbol) {
+        CURRENT_SYMBOL.set(symbol);
+    }
+
+    public static String getSymbol() {
+        return CURRENT_SYMBOL.get();
+    }
+
     public void debug(String message) {
         log(message, DEBUG);
     }
@@ -138,7 +156,7 @@ public class Log {
         ZonedDateTime zonedDateTime = Instant.ofEpochMilli(mills).atZone(ZoneId.of("UTC"));
         int year = zonedDateTime.getYear();
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(LOGS_DIR_PATH + SYMBOL + "_" + year + "_tmp.log", true))) {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(LOGS_DIR_PATH + getSymbol() + "_" + year + "_tmp.log", true))) {
             writer.write(logEntry);
             writer.newLine();
         } catch (IOException e) {